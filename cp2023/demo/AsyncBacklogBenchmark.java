@@ -0,0 +1,61 @@
+package cp2023.demo;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.demo.BenchmarkSupport.EmptyTransfer;
+import cp2023.solution.AsyncStorageSystem;
+import cp2023.solution.LockingMode;
+import cp2023.solution.StorageSystemFactory;
+
+/*
+Shows that asynchronous transfers can wait in queues without keeping any thread.
+Every device has one slot, taken by one component, and each component is moved to the next device in a ring.
+All transfers but the last one have to wait, as no slot is free, until the last one closes the cycle,
+so the whole ring waits at once, while only a few threads of the executor exist.
+
+Usage: AsyncBacklogBenchmark [devices] [rounds] [executorThreads]
+ */
+
+public final class AsyncBacklogBenchmark {
+
+    public static void main(String[] args) {
+        int devices = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int executorThreads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(devices);
+        HashMap<ComponentId, DeviceId> initialComponentMapping = new HashMap<>(devices);
+        for (int i = 0; i < devices; i++) {
+            deviceCapacities.put(new DeviceId(i), 1);
+            initialComponentMapping.put(new ComponentId(i), new DeviceId(i));
+        }
+        AsyncStorageSystem system = StorageSystemFactory.newAsyncSystem(deviceCapacities, initialComponentMapping, LockingMode.GLOBAL);
+        ExecutorService executor = Executors.newFixedThreadPool(executorThreads);
+
+        System.out.println("devices=" + devices + " executorThreads=" + executorThreads);
+        //Component 'c' is on device 'c + round' in the given round.
+        for (int round = 0; round < rounds; round++) {
+            long startTime = System.nanoTime();
+            ArrayList<CompletableFuture<Void>> transfers = new ArrayList<>(devices);
+            for (int c = 0; c < devices; c++) {
+                int src = (c + round) % devices;
+                int dest = (src + 1) % devices;
+                transfers.add(system.executeAsync(new EmptyTransfer(c, src, dest), executor));
+            }
+            long submitTime = System.nanoTime();
+            CompletableFuture.allOf(transfers.toArray(new CompletableFuture<?>[0])).join();
+            long endTime = System.nanoTime();
+            System.out.printf("round %d: submitted in %.1f ms, all completed in %.1f ms%n",
+                    round, (submitTime - startTime) / 1e6, (endTime - startTime) / 1e6);
+        }
+        System.out.println("peak live threads: " + ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,112 @@
+package cp2023.demo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.exceptions.TransferException;
+
+/*
+Fixtures shared by benchmarks and checks of the storage system: transfers that do no work, a stop flag of transferers,
+and waits that treat an interruption or an unexpected transfer exception as a bug of the program.
+ */
+
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    static void execute(StorageSystem system, ComponentTransfer transfer) {
+        try {
+            system.execute(transfer);
+        } catch (TransferException e) {
+            throw new RuntimeException("Unexpected transfer exception: " + e.toString(), e);
+        }
+    }
+
+    //Random device other than 'dev'.
+    static int otherDevice(int dev, int devices, ThreadLocalRandom random) {
+        int dest = random.nextInt(devices - 1);
+        return dest >= dev ? dest + 1 : dest;
+    }
+
+    static void sleep(long duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        }
+    }
+
+    static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        }
+    }
+
+    //Waits for the thread at most 'timeoutMillis', and fails if it has not ended by then, as it is stuck in the system.
+    static void join(Thread thread, long timeoutMillis) {
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        }
+        if (thread.isAlive()) {
+            throw new IllegalStateException("Thread " + thread.getName() + " is stuck after " + timeoutMillis + " ms.");
+        }
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        }
+    }
+
+    static final class Stop {
+        volatile boolean requested;
+    }
+
+    //Transfer with no work in 'prepare' and 'perform'. Negative device index means that there is no such device,
+    //so that the transfer adds or deletes the component.
+    static final class EmptyTransfer implements ComponentTransfer {
+        private final ComponentId compId;
+        private final DeviceId srcDevId;
+        private final DeviceId dstDevId;
+
+        public EmptyTransfer(int compId, int srcDev, int dstDev) {
+            this.compId = new ComponentId(compId);
+            this.srcDevId = srcDev < 0 ? null : new DeviceId(srcDev);
+            this.dstDevId = dstDev < 0 ? null : new DeviceId(dstDev);
+        }
+
+        @Override
+        public ComponentId getComponentId() {
+            return this.compId;
+        }
+
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return this.srcDevId;
+        }
+
+        @Override
+        public DeviceId getDestinationDeviceId() {
+            return this.dstDevId;
+        }
+
+        @Override
+        public void prepare() {
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package cp2023.demo;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.demo.BenchmarkSupport.EmptyTransfer;
+import cp2023.demo.BenchmarkSupport.Stop;
+import cp2023.solution.LockingMode;
+import cp2023.solution.PlacementLog;
+import cp2023.solution.StorageSystemFactory;
+
+import static cp2023.demo.BenchmarkSupport.execute;
+import static cp2023.demo.BenchmarkSupport.join;
+import static cp2023.demo.BenchmarkSupport.otherDevice;
+import static cp2023.demo.BenchmarkSupport.sleep;
+
+/*
+Measures the cost of durability: throughput of a system without a placement log, and of durable systems
+whose log waits at most the given number of microseconds to gather a batch, for 1 transferer and for 'threads' transferers.
+Each transferer keeps moving its own component between devices that always have free slots, so transfers never wait
+for each other, and the only waiting is for the log. One transferer syncs the log for every transfer,
+so it shows what syncing every transfer on its own would cost. Records per batch show how many transfers share one sync.
+Logs are kept in a temporary directory, which is removed at the end.
+
+Usage: DurabilityBenchmark [threads] [measurementMillis] [maxCommitDelayMicros...]
+ */
+
+public final class DurabilityBenchmark {
+
+    private static final int DEVICES = 16;
+    private static final long WARMUP_MILLIS = 500;
+
+    public static void main(String[] args) throws IOException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        long measurementMillis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+        ArrayList<Long> delays = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            delays.add(Long.parseLong(args[i]));
+        }
+        if (delays.isEmpty()) {
+            delays.add(0L);
+            delays.add(1000L);
+        }
+
+        System.out.printf("%-12s %8s %14s %18s%n", "log", "threads", "transfers/s", "records/batch");
+        for (int t : new int[]{1, threads}) {
+            measure(null, t, measurementMillis);
+            for (long delay : delays) {
+                measure(delay, t, measurementMillis);
+            }
+        }
+    }
+
+    private final static void measure(Long delayMicros, int threads, long measurementMillis) throws IOException {
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(DEVICES);
+        for (int i = 0; i < DEVICES; i++) {
+            deviceCapacities.put(new DeviceId(i), threads);
+        }
+        HashMap<ComponentId, DeviceId> initialComponentMapping = new HashMap<>();
+        for (int t = 0; t < threads; t++) {
+            initialComponentMapping.put(new ComponentId(t), new DeviceId(t % DEVICES));
+        }
+        Path directory = Files.createTempDirectory("placement-log");
+        PlacementLog log = null;
+        StorageSystem system;
+        if (delayMicros == null) {
+            system = StorageSystemFactory.newSystem(deviceCapacities, initialComponentMapping, LockingMode.STRIPED);
+        } else {
+            log = new PlacementLog(directory, Duration.ofNanos(delayMicros * 1000), 64L << 20);
+            system = StorageSystemFactory.newDurableSystem(deviceCapacities, initialComponentMapping, LockingMode.STRIPED, log);
+        }
+
+        LongAdder completed = new LongAdder();
+        ArrayList<Thread> transferers = new ArrayList<>(threads);
+        Stop stop = new Stop();
+        for (int t = 0; t < threads; t++) {
+            int component = t;
+            Thread transferer = new Thread(() -> transfer(system, component, completed, stop));
+            transferers.add(transferer);
+        }
+        for (Thread t : transferers) {
+            t.start();
+        }
+        sleep(WARMUP_MILLIS);
+        long startCount = completed.sum();
+        long startBatches = log == null ? 0 : log.getBatches();
+        long startRecords = log == null ? 0 : log.getDurableRecords();
+        long startTime = System.nanoTime();
+        sleep(measurementMillis);
+        long endCount = completed.sum();
+        long endTime = System.nanoTime();
+        long batches = log == null ? 0 : log.getBatches() - startBatches;
+        long records = log == null ? 0 : log.getDurableRecords() - startRecords;
+        stop.requested = true;
+        for (Thread t : transferers) {
+            join(t);
+        }
+
+        String name = delayMicros == null ? "none" : delayMicros + " us";
+        String perBatch = batches == 0 ? "-" : String.format("%.1f", (double) records / batches);
+        System.out.printf("%-12s %8d %14.0f %18s%n", name, threads, (endCount - startCount) * 1e9 / (endTime - startTime), perBatch);
+        if (log != null) {
+            log.close();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    //Every device has a slot for each transferer, so however components are moved, no device gets full.
+    private final static void transfer(StorageSystem system, int component, LongAdder completed, Stop stop) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int src = component % DEVICES;
+        while (!stop.requested) {
+            int dest = otherDevice(src, DEVICES, random);
+            execute(system, new EmptyTransfer(component, src, dest));
+            src = dest;
+            completed.increment();
+        }
+    }
+}
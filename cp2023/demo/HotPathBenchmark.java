@@ -0,0 +1,306 @@
+package cp2023.demo;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.demo.BenchmarkSupport.EmptyTransfer;
+import cp2023.demo.BenchmarkSupport.Stop;
+import cp2023.solution.AsyncStorageSystem;
+import cp2023.solution.LockingMode;
+import cp2023.solution.StorageSystemFactory;
+
+import static cp2023.demo.BenchmarkSupport.execute;
+import static cp2023.demo.BenchmarkSupport.join;
+import static cp2023.demo.BenchmarkSupport.otherDevice;
+
+/*
+Benchmark of the hot paths of the storage system, reporting throughput and allocation for every scenario, locking mode
+and number of threads, from the comma separated list 'threads'.
+Every scenario is warmed up, and then measured a few times, the best and the mean throughput of measurements are reported.
+Allocation is counted for all threads that execute transfers, with the allocation counters of HotSpot threads.
+MOVE: each thread moves its own component to random devices, and components of threads take at most half of the slots,
+so transfers wait only when a random destination happens to be full, and mostly the cost of starting and finishing
+a transfer is measured. Every component that moves is always in a transfer, or about to start one, so a full device
+always has a component that leaves it, and no transfer waits forever.
+ADD_DELETE: each thread adds a new component to a random device, and then deletes it.
+SWAP: pairs of threads swap their components between two devices with one slot each, so every transfer is a part of a cycle of two.
+CHAIN: devices with one slot form a line with a free slot at its end, all components are moved one device towards it,
+and the first transfer is submitted last, so the whole line waits and is then woken up as one chain.
+CYCLE: devices with one slot form a ring, all components are moved to the next device, so the last transfer closes a cycle of all of them.
+CHAIN and CYCLE use 'executeAsync', with 'threads' threads of the executor, and their length is the number of devices.
+When the measurement of MOVE or SWAP ends, every thread moves its component to a parking device, which is never full,
+so that no transfer is left waiting for components that are not moved anymore. Threads, and threads of the executor,
+are joined after every run, and the benchmark fails if any of them is stuck, or if a run completes no transfer.
+It is not a JMH benchmark, as the tree has no build that could bring JMH in: all runs share one JVM, without forks,
+so profiles and the heap of earlier scenarios affect later ones, and warmup is only a fixed number of iterations.
+
+Usage: HotPathBenchmark [scenario|ALL] [devices] [slotsPerDevice] [threads,...] [measurementMillis]
+ */
+
+public final class HotPathBenchmark {
+
+    private enum Scenario {
+        MOVE, ADD_DELETE, SWAP, CHAIN, CYCLE
+    }
+
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int MEASUREMENT_ITERATIONS = 3;
+    private static final long JOIN_TIMEOUT_MILLIS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        String scenarioName = args.length > 0 ? args[0] : "ALL";
+        int devices = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int slotsPerDevice = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        String threadCounts = args.length > 3 ? args[3] : "4,64,256";
+        long measurementMillis = args.length > 4 ? Long.parseLong(args[4]) : 1000;
+
+        System.out.println("devices=" + devices + " slotsPerDevice=" + slotsPerDevice
+                + " iterations=" + WARMUP_ITERATIONS + "+" + MEASUREMENT_ITERATIONS + "x" + measurementMillis + "ms");
+        System.out.printf("%-11s %-8s %8s %14s %14s %12s%n", "scenario", "mode", "threads", "best ops/s", "mean ops/s", "bytes/op");
+        for (Scenario scenario : Scenario.values()) {
+            if (!scenarioName.equals("ALL") && !scenarioName.equals(scenario.name())) {
+                continue;
+            }
+            for (LockingMode mode : LockingMode.values()) {
+                for (String threadCount : threadCounts.split(",")) {
+                    int threads = Integer.parseInt(threadCount.trim());
+                    double best = 0;
+                    double sum = 0;
+                    double bytesPerOp = 0;
+                    for (int i = 0; i < WARMUP_ITERATIONS + MEASUREMENT_ITERATIONS; i++) {
+                        Result result = run(scenario, mode, devices, slotsPerDevice, threads, measurementMillis);
+                        if (i >= WARMUP_ITERATIONS) {
+                            best = Math.max(best, result.throughput());
+                            sum += result.throughput();
+                            bytesPerOp += result.bytesPerOp() / MEASUREMENT_ITERATIONS;
+                        }
+                    }
+                    System.out.printf("%-11s %-8s %8d %14.0f %14.0f %12.0f%n",
+                            scenario, mode, threads, best, sum / MEASUREMENT_ITERATIONS, bytesPerOp);
+                }
+            }
+        }
+    }
+
+    private final static Result run(Scenario scenario, LockingMode mode, int devices, int slotsPerDevice,
+                                     int threads, long measurementMillis) throws InterruptedException {
+        switch (scenario) {
+            case MOVE:
+                return runMoves(mode, devices, slotsPerDevice, threads, measurementMillis);
+            case ADD_DELETE:
+                return runAddsAndDeletes(mode, devices, slotsPerDevice, threads, measurementMillis);
+            case SWAP:
+                return runSwaps(mode, threads, measurementMillis);
+            case CHAIN:
+                return runRounds(mode, devices, threads, measurementMillis, false);
+            default:
+                return runRounds(mode, devices, threads, measurementMillis, true);
+        }
+    }
+
+    private final static Result runMoves(LockingMode mode, int devices, int slotsPerDevice,
+                                         int threads, long measurementMillis) throws InterruptedException {
+        if (devices < 2 || threads > devices * slotsPerDevice / 2) {
+            throw new IllegalArgumentException("Too many threads for " + devices + " devices with " + slotsPerDevice + " slots.");
+        }
+        HashMap<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < threads; c++) {
+            placement.put(new ComponentId(c), new DeviceId(c % devices));
+        }
+        AsyncStorageSystem system = newSystem(devices, slotsPerDevice, placement, mode, threads);
+        return runThreads(threads, measurementMillis, (t, completed, stop) -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int dev = t % devices;
+            while (!stop.requested) {
+                int dest = otherDevice(dev, devices, random);
+                execute(system, new EmptyTransfer(t, dev, dest));
+                dev = dest;
+                completed.increment();
+            }
+            execute(system, new EmptyTransfer(t, dev, devices));
+        });
+    }
+
+    private final static Result runAddsAndDeletes(LockingMode mode, int devices, int slotsPerDevice,
+                                                  int threads, long measurementMillis) throws InterruptedException {
+        if (threads > devices * slotsPerDevice) {
+            throw new IllegalArgumentException("Too many threads for " + devices + " devices with " + slotsPerDevice + " slots.");
+        }
+        AsyncStorageSystem system = newSystem(devices, slotsPerDevice, new HashMap<>(), mode, 0);
+        return runThreads(threads, measurementMillis, (t, completed, stop) -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (!stop.requested) {
+                int dev = random.nextInt(devices);
+                execute(system, new EmptyTransfer(t, -1, dev));
+                execute(system, new EmptyTransfer(t, dev, -1));
+                completed.add(2);
+            }
+        });
+    }
+
+    private final static Result runSwaps(LockingMode mode, int threads, long measurementMillis) throws InterruptedException {
+        int pairs = Math.max(1, threads / 2);
+        HashMap<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int d = 0; d < 2 * pairs; d++) {
+            placement.put(new ComponentId(d), new DeviceId(d));
+        }
+        AsyncStorageSystem system = newSystem(2 * pairs, 1, placement, mode, 2 * pairs);
+        return runThreads(2 * pairs, measurementMillis, (t, completed, stop) -> {
+            //Thread 't' moves component 't' between devices 't' and its pair, so both threads of a pair always make a cycle.
+            //Thread that stops parks its component, so that its partner, which may still wait for it, moves alone.
+            int pair = t ^ 1;
+            int dev = t;
+            while (!stop.requested) {
+                int dest = dev == t ? pair : t;
+                execute(system, new EmptyTransfer(t, dev, dest));
+                dev = dest;
+                completed.increment();
+            }
+            execute(system, new EmptyTransfer(t, dev, 2 * pairs));
+        });
+    }
+
+    //Every round moves all components by one device, in the same direction. Transfers are submitted starting from the one
+    //farthest from the free slot, so that they all wait.
+    private final static Result runRounds(LockingMode mode, int devices, int threads, long measurementMillis,
+                                          boolean ring) throws InterruptedException {
+        int components = ring ? devices : devices - 1;
+        HashMap<ComponentId, DeviceId> placement = new HashMap<>();
+        for (int c = 0; c < components; c++) {
+            placement.put(new ComponentId(c), new DeviceId(c));
+        }
+        AsyncStorageSystem system = newSystem(devices, 1, placement, mode, 0);
+        RecordingThreadFactory threadFactory = new RecordingThreadFactory();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory);
+        int[] location = new int[components];
+        for (int c = 0; c < components; c++) {
+            location[c] = c;
+        }
+        long completed = 0;
+        long startAllocated = allocatedBytes(threadFactory.threads) + allocatedBytes(List.of(Thread.currentThread()));
+        long startTime = System.nanoTime();
+        long endTime = startTime + measurementMillis * 1_000_000;
+        int round = 0;
+        while (System.nanoTime() < endTime) {
+            List<CompletableFuture<Void>> transfers = new ArrayList<>(components);
+            for (int i = 0; i < components; i++) {
+                //Component that is nearest to the free slot of the line is the last one, so we go from the first one.
+                int c = ring ? i : Math.floorMod(i - round, components);
+                int dest = (location[c] + 1) % devices;
+                transfers.add(system.executeAsync(new EmptyTransfer(c, location[c], dest), executor));
+                location[c] = dest;
+            }
+            CompletableFuture.allOf(transfers.toArray(new CompletableFuture<?>[0])).join();
+            completed += components;
+            round++;
+        }
+        long time = System.nanoTime() - startTime;
+        long allocated = allocatedBytes(threadFactory.threads) + allocatedBytes(List.of(Thread.currentThread())) - startAllocated;
+        executor.shutdown();
+        for (Thread thread : threadFactory.threads) {
+            join(thread, JOIN_TIMEOUT_MILLIS);
+        }
+        if (completed == 0) {
+            throw new IllegalStateException("No transfer completed in " + (ring ? "CYCLE" : "CHAIN") + " with " + threads + " threads.");
+        }
+        return new Result(completed * 1e9 / time, (double) allocated / completed);
+    }
+
+    private interface Transferer {
+        void run(int thread, LongAdder completed, Stop stop);
+    }
+
+    private final static Result runThreads(int threads, long measurementMillis, Transferer transferer) throws InterruptedException {
+        LongAdder completed = new LongAdder();
+        Stop stop = new Stop();
+        RecordingThreadFactory threadFactory = new RecordingThreadFactory();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            threadFactory.newThread(() -> transferer.run(thread, completed, stop)).start();
+        }
+        long startCount = completed.sum();
+        long startAllocated = allocatedBytes(threadFactory.threads);
+        long startTime = System.nanoTime();
+        Thread.sleep(measurementMillis);
+        long endCount = completed.sum();
+        long endAllocated = allocatedBytes(threadFactory.threads);
+        long endTime = System.nanoTime();
+        stop.requested = true;
+        for (Thread thread : threadFactory.threads) {
+            join(thread, JOIN_TIMEOUT_MILLIS);
+        }
+        //First window may see no transfer while classes of the system are still loaded, but the run as a whole must see some.
+        if (completed.sum() == 0) {
+            throw new IllegalStateException("No transfer completed with " + threads + " threads.");
+        }
+        long count = endCount - startCount;
+        return new Result(count * 1e9 / (endTime - startTime), (double) (endAllocated - startAllocated) / Math.max(1, count));
+    }
+
+    //Device 'devices' is the parking device with 'parkingSlots' slots, if there are any.
+    private final static AsyncStorageSystem newSystem(int devices, int slotsPerDevice, HashMap<ComponentId, DeviceId> placement,
+                                                      LockingMode mode, int parkingSlots) {
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(devices + 1);
+        for (int i = 0; i < devices; i++) {
+            deviceCapacities.put(new DeviceId(i), slotsPerDevice);
+        }
+        if (parkingSlots > 0) {
+            deviceCapacities.put(new DeviceId(devices), parkingSlots);
+        }
+        return StorageSystemFactory.newAsyncSystem(deviceCapacities, placement, mode);
+    }
+
+    //Bytes allocated so far by the given threads, as counted by HotSpot, or 0 if it cannot be measured.
+    private final static long allocatedBytes(List<Thread> threads) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        for (Thread t : threads) {
+            allocated += Math.max(0, threadBean.getThreadAllocatedBytes(t.getId()));
+        }
+        return allocated;
+    }
+
+    private final static class Result {
+        private final double throughput;
+        private final double bytesPerOp;
+
+        public Result(double throughput, double bytesPerOp) {
+            this.throughput = throughput;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        public double throughput() {
+            return throughput;
+        }
+
+        public double bytesPerOp() {
+            return bytesPerOp;
+        }
+    }
+
+    //Remembers the threads it creates, so that their allocation can be measured.
+    private final static class RecordingThreadFactory implements ThreadFactory {
+        private final List<Thread> threads = new ArrayList<>();
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        }
+    }
+}
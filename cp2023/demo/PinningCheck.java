@@ -0,0 +1,177 @@
+package cp2023.demo;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.demo.BenchmarkSupport.EmptyTransfer;
+import cp2023.solution.AsyncStorageSystem;
+import cp2023.solution.LockingMode;
+import cp2023.solution.PlacementLog;
+import cp2023.solution.StorageSystemFactory;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static cp2023.demo.BenchmarkSupport.execute;
+import static cp2023.demo.BenchmarkSupport.otherDevice;
+
+/*
+Checks that no wait of a transfer pins the carrier thread of a virtual thread, for every locking mode, with and without
+a placement log, in two ways of running transfers on virtual threads:
+BLOCKING: every transferer is a virtual thread, calling the blocking 'execute'.
+ASYNC: transfers are given to 'executeAsync' with the executor of StorageSystemFactory.newVirtualThreadExecutor,
+so their 'prepare' and 'perform', and the locks they take on the way, run in virtual threads, and each transferer
+submits its next transfer when the previous one completes.
+Devices are nearly full, so that transfers wait in queues, for places left by previous components, for locks of queues,
+and for their intents to be durable. After its transfers, every transferer moves its component to a parking device,
+which is never full, so that no transfer is left waiting for components that are not moved anymore.
+Flight Recorder records every 'jdk.VirtualThreadPinned' event, whatever its duration, and the check fails if there is any.
+It needs a runtime that has virtual threads and this event (Java 21 or newer), otherwise it is skipped.
+Running it with -Djdk.tracePinnedThreads=full also makes the runtime print the stack of every pinned wait, where it has that option.
+
+Usage: PinningCheck [devices] [slotsPerDevice] [transfersEach]
+ */
+
+public final class PinningCheck {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    public static void main(String[] args) throws Exception {
+        int devices = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int slotsPerDevice = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int transfersEach = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        if (devices < 2 || slotsPerDevice < 2) {
+            throw new IllegalArgumentException("At least 2 devices with 2 slots each are needed.");
+        }
+
+        ExecutorService virtualThreads;
+        try {
+            virtualThreads = StorageSystemFactory.newVirtualThreadExecutor();
+        } catch (UnsupportedOperationException e) {
+            System.out.println("skipped, " + e.getMessage());
+            return;
+        }
+        if (Runtime.version().feature() < 21) {
+            System.out.println("skipped, Java " + Runtime.version().feature() + " does not record " + PINNED_EVENT);
+            return;
+        }
+        int pinned = 0;
+        try (Recording recording = new Recording()) {
+            recording.enable(PINNED_EVENT).withoutThreshold().withStackTrace();
+            recording.start();
+            for (LockingMode mode : LockingMode.values()) {
+                for (boolean durable : new boolean[]{false, true}) {
+                    for (boolean async : new boolean[]{false, true}) {
+                        run(virtualThreads, mode, durable, async, devices, slotsPerDevice, transfersEach);
+                        System.out.println(mode + (async ? " ASYNC" : " BLOCKING") + (durable ? " with log" : "") + ": done");
+                    }
+                }
+            }
+            recording.stop();
+            Path file = Files.createTempFile("pinning", ".jfr");
+            recording.dump(file);
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().equals(PINNED_EVENT)) {
+                    pinned++;
+                    System.out.println(event);
+                }
+            }
+            Files.delete(file);
+        }
+        virtualThreads.shutdown();
+        if (pinned > 0) {
+            throw new IllegalStateException(pinned + " waits pinned the carrier thread.");
+        }
+        System.out.println("no wait pinned the carrier thread");
+    }
+
+    //Every device has one free slot, the rest of the slots is taken by components of the transferers.
+    //Device 'devices' is the parking device, with a slot for every component.
+    private final static void run(ExecutorService executor, LockingMode mode, boolean durable, boolean async,
+                                  int devices, int slotsPerDevice, int transfersEach) throws IOException, InterruptedException {
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(devices + 1);
+        for (int i = 0; i < devices; i++) {
+            deviceCapacities.put(new DeviceId(i), slotsPerDevice);
+        }
+        int transferers = devices * (slotsPerDevice - 1);
+        deviceCapacities.put(new DeviceId(devices), transferers);
+        HashMap<ComponentId, DeviceId> initialComponentMapping = new HashMap<>();
+        for (int t = 0; t < transferers; t++) {
+            initialComponentMapping.put(new ComponentId(t), new DeviceId(t % devices));
+        }
+        Path directory = null;
+        PlacementLog log = null;
+        AsyncStorageSystem system;
+        if (durable) {
+            directory = Files.createTempDirectory("placement-log");
+            log = new PlacementLog(directory, Duration.ofNanos(100_000), 1L << 20);
+            system = StorageSystemFactory.newDurableSystem(deviceCapacities, initialComponentMapping, mode, log);
+        } else {
+            system = StorageSystemFactory.newAsyncSystem(deviceCapacities, initialComponentMapping, mode);
+        }
+
+        if (async) {
+            CompletableFuture<?>[] done = new CompletableFuture<?>[transferers];
+            for (int t = 0; t < transferers; t++) {
+                done[t] = transferAsync(system, executor, devices, t, t % devices, transfersEach);
+            }
+            CompletableFuture.allOf(done).join();
+        } else {
+            CountDownLatch done = new CountDownLatch(transferers);
+            for (int t = 0; t < transferers; t++) {
+                int component = t;
+                executor.execute(() -> {
+                    transfer(system, devices, component, transfersEach);
+                    done.countDown();
+                });
+            }
+            done.await();
+        }
+
+        if (log != null) {
+            log.close();
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                stream.forEach(files::add);
+            }
+            for (Path file : files) {
+                Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private final static void transfer(AsyncStorageSystem system, int devices, int component, int transfersEach) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int src = component % devices;
+        for (int i = 0; i < transfersEach; i++) {
+            int dest = otherDevice(src, devices, random);
+            execute(system, new EmptyTransfer(component, src, dest));
+            src = dest;
+        }
+        execute(system, new EmptyTransfer(component, src, devices));
+    }
+
+    //Next transfer of a component is submitted when the previous one completes, and the last one parks it.
+    private final static CompletableFuture<Void> transferAsync(AsyncStorageSystem system, ExecutorService executor,
+                                                               int devices, int component, int src, int remaining) {
+        if (remaining == 0) {
+            return system.executeAsync(new EmptyTransfer(component, src, devices), executor);
+        }
+        int dest = otherDevice(src, devices, ThreadLocalRandom.current());
+        return system.executeAsync(new EmptyTransfer(component, src, dest), executor)
+                .thenCompose(ignored -> transferAsync(system, executor, devices, component, dest, remaining - 1));
+    }
+}
@@ -0,0 +1,137 @@
+package cp2023.demo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.demo.BenchmarkSupport.EmptyTransfer;
+import cp2023.demo.BenchmarkSupport.Stop;
+import cp2023.solution.LockingMode;
+import cp2023.solution.PlacementQueries;
+import cp2023.solution.StorageSystemFactory;
+
+import static cp2023.demo.BenchmarkSupport.execute;
+import static cp2023.demo.BenchmarkSupport.join;
+import static cp2023.demo.BenchmarkSupport.otherDevice;
+import static cp2023.demo.BenchmarkSupport.sleep;
+
+/*
+Measures how placement queries and transfers affect each other: throughput of transferers alone,
+and together with a growing number of readers, which keep locating random components and asking for free slots
+of their devices. Each transferer keeps moving its own component between devices, as in ScalingBenchmark,
+while the rest of the slots is half filled with components that never move.
+Queries that do not slow transfers down keep the transfer throughput flat as readers are added.
+
+Usage: QueryBenchmark [transferers] [measurementMillis] [maxReaders]
+ */
+
+public final class QueryBenchmark {
+
+    private static final int DEVICES = 64;
+    private static final int SLOTS_PER_DEVICE = 64;
+    private static final long WARMUP_MILLIS = 500;
+
+    public static void main(String[] args) {
+        int transferers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long measurementMillis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+        int maxReaders = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        if (transferers > DEVICES * SLOTS_PER_DEVICE / 2) {
+            throw new IllegalArgumentException("Too many transferers for " + DEVICES + " devices with " + SLOTS_PER_DEVICE + " slots.");
+        }
+
+        System.out.printf("%-8s %8s %14s %14s%n", "mode", "readers", "transfers/s", "queries/s");
+        for (LockingMode mode : LockingMode.values()) {
+            measure(mode, transferers, 0, measurementMillis);
+            for (int readers = 1; readers <= maxReaders; readers *= 2) {
+                measure(mode, transferers, readers, measurementMillis);
+            }
+        }
+    }
+
+    private final static void measure(LockingMode mode, int transferers, int readers, long measurementMillis) {
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(DEVICES);
+        for (int i = 0; i < DEVICES; i++) {
+            deviceCapacities.put(new DeviceId(i), SLOTS_PER_DEVICE);
+        }
+        HashMap<ComponentId, DeviceId> initialComponentMapping = new HashMap<>();
+        int[] occupied = new int[DEVICES];
+        for (int t = 0; t < transferers; t++) {
+            occupied[t % DEVICES]++;
+            initialComponentMapping.put(new ComponentId(t), new DeviceId(t % DEVICES));
+        }
+        int components = transferers;
+        for (int dev = 0; dev < DEVICES; dev++) {
+            while (occupied[dev] < SLOTS_PER_DEVICE / 2) {
+                occupied[dev]++;
+                initialComponentMapping.put(new ComponentId(components++), new DeviceId(dev));
+            }
+        }
+        StorageSystem system = StorageSystemFactory.newSystem(deviceCapacities, initialComponentMapping, mode);
+        PlacementQueries queries = (PlacementQueries) system;
+
+        LongAdder completed = new LongAdder();
+        LongAdder answered = new LongAdder();
+        ArrayList<Thread> threads = new ArrayList<>(transferers + readers);
+        Stop stop = new Stop();
+        for (int t = 0; t < transferers; t++) {
+            int component = t;
+            Thread transferer = new Thread(() -> transfer(system, component, completed, stop));
+            transferer.setDaemon(true);
+            threads.add(transferer);
+        }
+        int queriedComponents = components;
+        for (int r = 0; r < readers; r++) {
+            Thread reader = new Thread(() -> query(queries, queriedComponents, answered, stop));
+            reader.setDaemon(true);
+            threads.add(reader);
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        sleep(WARMUP_MILLIS);
+        long startCount = completed.sum();
+        long startQueries = answered.sum();
+        long startTime = System.nanoTime();
+        sleep(measurementMillis);
+        long endCount = completed.sum();
+        long endQueries = answered.sum();
+        long endTime = System.nanoTime();
+        stop.requested = true;
+        for (Thread t : threads) {
+            join(t);
+        }
+        System.out.printf("%-8s %8d %14.0f %14.0f%n", mode, readers,
+                (endCount - startCount) * 1e9 / (endTime - startTime), (endQueries - startQueries) * 1e9 / (endTime - startTime));
+    }
+
+    private final static void transfer(StorageSystem system, int component, LongAdder completed, Stop stop) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int src = component % DEVICES;
+        while (!stop.requested) {
+            int dest = otherDevice(src, DEVICES, random);
+            execute(system, new EmptyTransfer(component, src, dest));
+            src = dest;
+            completed.increment();
+        }
+    }
+
+    //Every query is a lookup of a component, followed by the free slots of the device it is on.
+    private final static void query(PlacementQueries queries, int components, LongAdder answered, Stop stop) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long free = 0;
+        while (!stop.requested) {
+            DeviceId dev = queries.locate(new ComponentId(random.nextInt(components)));
+            if (dev != null) {
+                free += queries.freeSlots(dev);
+            }
+            answered.increment();
+        }
+        if (free < 0) {
+            throw new IllegalStateException("Device has a negative number of free slots.");
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package cp2023.demo;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.demo.BenchmarkSupport.EmptyTransfer;
+import cp2023.demo.BenchmarkSupport.Stop;
+import cp2023.solution.LockingMode;
+import cp2023.solution.PlacementLog;
+import cp2023.solution.PlacementQueries;
+import cp2023.solution.StorageSystemFactory;
+
+import static cp2023.demo.BenchmarkSupport.execute;
+import static cp2023.demo.BenchmarkSupport.join;
+import static cp2023.demo.BenchmarkSupport.otherDevice;
+import static cp2023.demo.BenchmarkSupport.sleep;
+
+/*
+Checks that a placement log restores the placement of its system. For every locking mode, transferers keep moving,
+deleting and adding their own components on devices that are nearly full, so that transfers wait in queues, are woken up
+by chains and cycles, and logs are rotated and compacted many times. Transfer waiting for a full device could wait forever
+once the transferers of the components on it stop, so when asked to stop, every transferer moves its component
+to a parking device, which is never full, and then the components are put back on the devices one by one.
+When all transfers have ended, the log is closed,
+a new system is recovered from its directory, and both systems have to have the same components on every device,
+and the same numbers of free slots. Logs are kept in a temporary directory, which is removed at the end.
+
+Usage: RecoveryCheck [devices] [slotsPerDevice] [runMillis]
+ */
+
+public final class RecoveryCheck {
+
+    //Logs are rotated after a few batches, so that compaction runs while transfers go on.
+    private static final long COMPACTION_BYTES = 4096;
+
+    public static void main(String[] args) throws IOException {
+        int devices = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int slotsPerDevice = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long runMillis = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+        if (devices < 2 || slotsPerDevice < 2) {
+            throw new IllegalArgumentException("At least 2 devices with 2 slots each are needed.");
+        }
+
+        for (LockingMode mode : LockingMode.values()) {
+            check(mode, devices, slotsPerDevice, runMillis);
+        }
+    }
+
+    //Every device has one free slot, the rest of the slots is taken by components of the transferers.
+    //Device 'devices' is the parking device, with a slot for every component.
+    private final static void check(LockingMode mode, int devices, int slotsPerDevice, long runMillis) throws IOException {
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(devices + 1);
+        for (int i = 0; i < devices; i++) {
+            deviceCapacities.put(new DeviceId(i), slotsPerDevice);
+        }
+        int transferers = devices * (slotsPerDevice - 1);
+        deviceCapacities.put(new DeviceId(devices), transferers);
+        HashMap<ComponentId, DeviceId> initialComponentMapping = new HashMap<>();
+        for (int t = 0; t < transferers; t++) {
+            initialComponentMapping.put(new ComponentId(t), new DeviceId(t % devices));
+        }
+        Path directory = Files.createTempDirectory("placement-log");
+        PlacementLog log = new PlacementLog(directory, Duration.ofNanos(100_000), COMPACTION_BYTES);
+        StorageSystem system = StorageSystemFactory.newDurableSystem(deviceCapacities, initialComponentMapping, mode, log);
+
+        ArrayList<Thread> threads = new ArrayList<>(transferers);
+        Stop stop = new Stop();
+        for (int t = 0; t < transferers; t++) {
+            int component = t;
+            threads.add(new Thread(() -> transfer(system, devices, component, stop)));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        sleep(runMillis);
+        stop.requested = true;
+        for (Thread t : threads) {
+            join(t);
+        }
+        for (int t = 0; t < transferers; t++) {
+            execute(system, new EmptyTransfer(t, devices, t % devices));
+        }
+        long batches = log.getBatches();
+        log.close();
+
+        PlacementLog recoveredLog = new PlacementLog(directory, Duration.ZERO, COMPACTION_BYTES);
+        StorageSystem recovered = StorageSystemFactory.newDurableSystem(new HashMap<>(), new HashMap<>(), mode, recoveredLog);
+        for (int i = 0; i <= devices; i++) {
+            DeviceId dev = new DeviceId(i);
+            PlacementQueries live = (PlacementQueries) system;
+            PlacementQueries restored = (PlacementQueries) recovered;
+            if (!components(live, dev).equals(components(restored, dev)) || live.freeSlots(dev) != restored.freeSlots(dev)) {
+                throw new IllegalStateException("Device " + dev + " has " + live.componentsOn(dev) + " but "
+                        + restored.componentsOn(dev) + " after recovery.");
+            }
+        }
+        recoveredLog.close();
+        System.out.println(mode + ": placement restored after " + batches + " batches");
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private final static HashSet<ComponentId> components(PlacementQueries queries, DeviceId dev) {
+        return new HashSet<>(queries.componentsOn(dev));
+    }
+
+    //Component is moved to a random device, or deleted and added again to a random device, once in a few transfers.
+    private final static void transfer(StorageSystem system, int devices, int component, Stop stop) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int src = component % devices;
+        while (!stop.requested) {
+            int dest = otherDevice(src, devices, random);
+            if (random.nextInt(8) == 0) {
+                execute(system, new EmptyTransfer(component, src, -1));
+                execute(system, new EmptyTransfer(component, -1, dest));
+            } else {
+                execute(system, new EmptyTransfer(component, src, dest));
+            }
+            src = dest;
+        }
+        execute(system, new EmptyTransfer(component, src, devices));
+    }
+}
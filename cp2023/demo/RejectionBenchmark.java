@@ -0,0 +1,173 @@
+package cp2023.demo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.demo.BenchmarkSupport.Stop;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.LockingMode;
+import cp2023.solution.StorageSystemFactory;
+
+import static cp2023.demo.BenchmarkSupport.await;
+import static cp2023.demo.BenchmarkSupport.execute;
+import static cp2023.demo.BenchmarkSupport.join;
+import static cp2023.demo.BenchmarkSupport.sleep;
+
+/*
+Measures how many rejected transfers per second the storage system can throw, for every kind of rejection.
+Exceptions are stackless only if the JVM is started with -Dcp2023.exceptions.stackless=true, so the benchmark
+has to be run once without and once with it, to compare both modes.
+OPERATED: component is held by a transfer that waits in its 'prepare', and every transfer of it is ComponentIsBeingOperatedOn.
+NOT_NEEDED: component is moved to the device it is on, ComponentDoesNotNeedTransfer.
+NO_DEVICE: component is moved to a device that does not exist, DeviceDoesNotExist.
+
+Usage: RejectionBenchmark [threads] [measurementMillis]
+ */
+
+public final class RejectionBenchmark {
+
+    private enum Scenario {
+        OPERATED, NOT_NEEDED, NO_DEVICE
+    }
+
+    private static final int DEVICES = 16;
+    private static final long WARMUP_MILLIS = 500;
+
+    public static void main(String[] args) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long measurementMillis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        System.out.println("stackless=" + Boolean.getBoolean("cp2023.exceptions.stackless") + " threads=" + threads);
+        System.out.printf("%-11s %14s%n", "scenario", "rejections/s");
+        for (Scenario scenario : Scenario.values()) {
+            System.out.printf("%-11s %14.0f%n", scenario, measure(scenario, threads, measurementMillis));
+        }
+    }
+
+    //Every thread has its own component, on the device with the index of the thread, modulo the number of devices.
+    private final static double measure(Scenario scenario, int threads, long measurementMillis) {
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(DEVICES);
+        for (int i = 0; i < DEVICES; i++) {
+            deviceCapacities.put(new DeviceId(i), threads);
+        }
+        HashMap<ComponentId, DeviceId> initialComponentMapping = new HashMap<>();
+        for (int t = 0; t < threads; t++) {
+            initialComponentMapping.put(new ComponentId(t), new DeviceId(t % DEVICES));
+        }
+        StorageSystem system = StorageSystemFactory.newSystem(deviceCapacities, initialComponentMapping, LockingMode.STRIPED);
+
+        //Components are held by transfers that wait in their 'prepare' until the measurement ends.
+        CountDownLatch release = new CountDownLatch(1);
+        ArrayList<Thread> holders = new ArrayList<>();
+        if (scenario == Scenario.OPERATED) {
+            CountDownLatch held = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                ComponentTransfer transfer = new HeldTransfer(new ComponentId(t), new DeviceId(t % DEVICES),
+                        new DeviceId((t + 1) % DEVICES), held, release);
+                Thread holder = new Thread(() -> execute(system, transfer));
+                holders.add(holder);
+                holder.start();
+            }
+            await(held);
+        }
+
+        LongAdder rejected = new LongAdder();
+        ArrayList<Thread> rejecters = new ArrayList<>(threads);
+        Stop stop = new Stop();
+        for (int t = 0; t < threads; t++) {
+            ComponentTransfer transfer = rejectedTransfer(scenario, t);
+            rejecters.add(new Thread(() -> reject(system, transfer, rejected, stop)));
+        }
+        for (Thread t : rejecters) {
+            t.start();
+        }
+        sleep(WARMUP_MILLIS);
+        long startCount = rejected.sum();
+        long startTime = System.nanoTime();
+        sleep(measurementMillis);
+        long endCount = rejected.sum();
+        long endTime = System.nanoTime();
+        stop.requested = true;
+        for (Thread t : rejecters) {
+            join(t);
+        }
+        release.countDown();
+        for (Thread t : holders) {
+            join(t);
+        }
+        return (endCount - startCount) * 1e9 / (endTime - startTime);
+    }
+
+    private final static ComponentTransfer rejectedTransfer(Scenario scenario, int component) {
+        DeviceId src = new DeviceId(component % DEVICES);
+        switch (scenario) {
+            case OPERATED:
+                return new HeldTransfer(new ComponentId(component), src, new DeviceId((component + 2) % DEVICES), null, null);
+            case NOT_NEEDED:
+                return new HeldTransfer(new ComponentId(component), src, src, null, null);
+            default:
+                return new HeldTransfer(new ComponentId(component), src, new DeviceId(DEVICES + component), null, null);
+        }
+    }
+
+    private final static void reject(StorageSystem system, ComponentTransfer transfer, LongAdder rejected, Stop stop) {
+        while (!stop.requested) {
+            try {
+                system.execute(transfer);
+                throw new IllegalStateException("Transfer that should be rejected has been executed.");
+            } catch (TransferException e) {
+                rejected.increment();
+            }
+        }
+    }
+
+    //Transfer whose 'prepare' reports that it has started, and waits until it is released, if it is given latches.
+    private final static class HeldTransfer implements ComponentTransfer {
+        private final ComponentId compId;
+        private final DeviceId srcDevId;
+        private final DeviceId dstDevId;
+        private final CountDownLatch held;
+        private final CountDownLatch release;
+
+        public HeldTransfer(ComponentId compId, DeviceId srcDevId, DeviceId dstDevId, CountDownLatch held, CountDownLatch release) {
+            this.compId = compId;
+            this.srcDevId = srcDevId;
+            this.dstDevId = dstDevId;
+            this.held = held;
+            this.release = release;
+        }
+
+        @Override
+        public ComponentId getComponentId() {
+            return this.compId;
+        }
+
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return this.srcDevId;
+        }
+
+        @Override
+        public DeviceId getDestinationDeviceId() {
+            return this.dstDevId;
+        }
+
+        @Override
+        public void prepare() {
+            if (held != null) {
+                held.countDown();
+                await(release);
+            }
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package cp2023.demo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.demo.BenchmarkSupport.EmptyTransfer;
+import cp2023.demo.BenchmarkSupport.Stop;
+import cp2023.solution.LockingMode;
+import cp2023.solution.StorageSystemFactory;
+
+import static cp2023.demo.BenchmarkSupport.execute;
+import static cp2023.demo.BenchmarkSupport.join;
+import static cp2023.demo.BenchmarkSupport.otherDevice;
+import static cp2023.demo.BenchmarkSupport.sleep;
+
+/*
+Measures throughput of the storage system (transfers per second) for a growing number of transferers,
+for every locking mode.
+Each transferer owns one component and keeps moving it to random devices, while the rest of the slots
+is half filled with components that never move, so that transfers sometimes have to wait.
+Every component that moves is always in a transfer, or about to start one, so a full device always has a component
+that leaves it, and transfers never wait forever. When the measurement ends, every transferer moves its component
+to a parking device, which is never full, so that no transfer is left waiting for components that are not moved anymore,
+and the transferers are joined before the next run. Run that completes no transfer fails.
+Transfers do not do any work in prepare and perform, so only the cost of the system itself is measured.
+
+Usage: ScalingBenchmark [devices] [slotsPerDevice] [measurementMillis] [maxThreads]
+ */
+
+public final class ScalingBenchmark {
+
+    private static final long WARMUP_MILLIS = 500;
+    private static final long JOIN_TIMEOUT_MILLIS = 10_000;
+
+    public static void main(String[] args) {
+        int devices = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int slotsPerDevice = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        long measurementMillis = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        if (devices < 2 || maxThreads > devices * (slotsPerDevice / 2)) {
+            throw new IllegalArgumentException("Too many threads for " + devices + " devices with " + slotsPerDevice + " slots.");
+        }
+
+        System.out.println("devices=" + devices + " slotsPerDevice=" + slotsPerDevice);
+        System.out.printf("%-8s %8s %14s%n", "mode", "threads", "transfers/s");
+        for (LockingMode mode : LockingMode.values()) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double throughput = measure(mode, devices, slotsPerDevice, threads, measurementMillis);
+                System.out.printf("%-8s %8d %14.0f%n", mode, threads, throughput);
+            }
+        }
+    }
+
+    //Device 'devices' is the parking device, with a slot for every component of a transferer.
+    private final static double measure(LockingMode mode, int devices, int slotsPerDevice, int threads, long measurementMillis) {
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(devices + 1);
+        for (int i = 0; i < devices; i++) {
+            deviceCapacities.put(new DeviceId(i), slotsPerDevice);
+        }
+        deviceCapacities.put(new DeviceId(devices), threads);
+        //Components of transferers are spread evenly, then devices are half filled with components that never move.
+        HashMap<ComponentId, DeviceId> initialComponentMapping = new HashMap<>();
+        int[] occupied = new int[devices];
+        int compId = 0;
+        for (int t = 0; t < threads; t++) {
+            int dev = t % devices;
+            occupied[dev]++;
+            initialComponentMapping.put(new ComponentId(compId++), new DeviceId(dev));
+        }
+        for (int dev = 0; dev < devices; dev++) {
+            while (occupied[dev] < slotsPerDevice / 2) {
+                occupied[dev]++;
+                initialComponentMapping.put(new ComponentId(compId++), new DeviceId(dev));
+            }
+        }
+        StorageSystem system = StorageSystemFactory.newSystem(deviceCapacities, initialComponentMapping, mode);
+
+        LongAdder completed = new LongAdder();
+        ArrayList<Thread> transferers = new ArrayList<>(threads);
+        Stop stop = new Stop();
+        for (int t = 0; t < threads; t++) {
+            int component = t;
+            Thread transferer = new Thread(() -> transfer(system, devices, component, completed, stop));
+            //Transferer stuck because of a bug must not keep the benchmark alive after it has failed.
+            transferer.setDaemon(true);
+            transferers.add(transferer);
+        }
+        for (Thread t : transferers) {
+            t.start();
+        }
+        sleep(WARMUP_MILLIS);
+        long startCount = completed.sum();
+        long startTime = System.nanoTime();
+        sleep(measurementMillis);
+        long endCount = completed.sum();
+        long endTime = System.nanoTime();
+        stop.requested = true;
+        for (Thread t : transferers) {
+            join(t, JOIN_TIMEOUT_MILLIS);
+        }
+        if (endCount == startCount) {
+            throw new IllegalStateException("No transfer completed in " + mode + " mode with " + threads + " threads.");
+        }
+        return (endCount - startCount) * 1e9 / (endTime - startTime);
+    }
+
+    private final static void transfer(StorageSystem system, int devices, int component, LongAdder completed, Stop stop) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int src = component % devices;
+        while (!stop.requested) {
+            int dest = otherDevice(src, devices, random);
+            execute(system, new EmptyTransfer(component, src, dest));
+            src = dest;
+            completed.increment();
+        }
+        execute(system, new EmptyTransfer(component, src, devices));
+    }
+}
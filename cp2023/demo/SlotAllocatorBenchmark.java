@@ -0,0 +1,62 @@
+package cp2023.demo;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import cp2023.solution.DevData;
+
+/*
+Measures how long it takes to reserve and release a slot of a single device, for different fractions of occupied slots.
+Device is first filled to the given fraction, which is also timed, as the constructor of the system places components the same way.
+Then every operation releases a random occupied slot and reserves a slot again, so the fraction of occupied slots does not change.
+
+Usage: SlotAllocatorBenchmark [slots] [operations]
+ */
+
+public final class SlotAllocatorBenchmark {
+
+    private static final double[] FILL_RATIOS = {0.0, 0.5, 0.9, 0.99, 0.999, 1.0};
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int slots = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        System.out.println("slots=" + slots + " operations=" + operations);
+        System.out.printf("%-8s %14s %18s%n", "filled", "fill ns/slot", "reserve+release ns");
+        for (double ratio : FILL_RATIOS) {
+            //Last round is reported, previous ones only warm up.
+            double[] result = null;
+            for (int round = 0; round < ROUNDS; round++) {
+                result = measure(slots, operations, ratio);
+            }
+            System.out.printf("%-8s %14.1f %18.1f%n", ratio, result[0], result[1]);
+        }
+    }
+
+    private final static double[] measure(int slots, int operations, double ratio) {
+        DevData device = new DevData(slots, 0);
+        //At least one slot is occupied, so that there is always something to release.
+        int occupied = Math.max(1, (int) (slots * ratio));
+        int[] positions = new int[occupied];
+        long startTime = System.nanoTime();
+        for (int i = 0; i < occupied; i++) {
+            positions[i] = device.reserveSlot();
+        }
+        long fillTime = System.nanoTime() - startTime;
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long checksum = 0;
+        startTime = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            int victim = random.nextInt(occupied);
+            device.increaseFreeSpaces(positions[victim]);
+            positions[victim] = device.reserveSlot();
+            checksum += positions[victim];
+        }
+        long operationTime = System.nanoTime() - startTime;
+        if (checksum < 0) {
+            throw new IllegalStateException("Slot was not reserved.");
+        }
+        return new double[] {(double) fillTime / occupied, (double) operationTime / operations};
+    }
+}
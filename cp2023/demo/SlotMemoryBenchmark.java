@@ -0,0 +1,51 @@
+package cp2023.demo;
+
+import java.util.HashMap;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.solution.StorageSystemFactory;
+
+/*
+Measures how much heap an empty storage system takes for every slot of its devices.
+Heap is measured after garbage collection, before and after the system is created, while the system is still reachable.
+
+Usage: SlotMemoryBenchmark [devices] [slotsPerDevice]
+ */
+
+public final class SlotMemoryBenchmark {
+
+    public static void main(String[] args) {
+        int devices = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int slotsPerDevice = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 22;
+
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(devices);
+        for (int i = 0; i < devices; i++) {
+            deviceCapacities.put(new DeviceId(i), slotsPerDevice);
+        }
+        HashMap<ComponentId, DeviceId> initialComponentMapping = new HashMap<>();
+
+        long before = usedHeap();
+        StorageSystem system = StorageSystemFactory.newSystem(deviceCapacities, initialComponentMapping);
+        long after = usedHeap();
+        long slots = (long) devices * slotsPerDevice;
+        System.out.println("devices=" + devices + " slotsPerDevice=" + slotsPerDevice);
+        System.out.printf("heap: %d bytes, %.2f bytes per slot%n", after - before, (double) (after - before) / slots);
+        //System has to stay reachable until it is measured.
+        if (system.hashCode() == 0) {
+            System.out.println();
+        }
+    }
+
+    private final static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        //Collection is repeated, as a single call does not have to free everything.
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,87 @@
+package cp2023.demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.solution.LockingMode;
+import cp2023.solution.StorageSystemFactory;
+import cp2023.solution.SystemSnapshot;
+
+/*
+Measures how long it takes to create a system with a big initial placement of components.
+Components are spread evenly over devices, which are filled up to 'fillPercent' of their slots.
+MAPS: system is created from maps given to the factory. Maps are built once, and only creating the system is measured,
+building them is reported separately, as a restart would have to do it too.
+SNAPSHOT: the placement is saved to a snapshot file in the temporary directory, and the system is restored from it.
+Best and mean time of all rounds are reported. A system of 10M components needs a heap of about 4 GB (-Xmx4g).
+
+Usage: StartupBenchmark [components] [devices] [fillPercent] [rounds]
+ */
+
+public final class StartupBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int components = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int devices = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int fillPercent = args.length > 2 ? Integer.parseInt(args[2]) : 75;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        int slotsPerDevice = (int) Math.max(1, ((long) components + devices - 1) / devices * 100 / fillPercent);
+        System.out.println("components=" + components + " devices=" + devices + " slotsPerDevice=" + slotsPerDevice);
+        long startTime = System.nanoTime();
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(2 * devices);
+        for (int i = 0; i < devices; i++) {
+            deviceCapacities.put(new DeviceId(i), slotsPerDevice);
+        }
+        HashMap<ComponentId, DeviceId> initialComponentMapping = new HashMap<>(2 * components);
+        for (int c = 0; c < components; c++) {
+            initialComponentMapping.put(new ComponentId(c), new DeviceId(c % devices));
+        }
+        System.out.printf("maps built in %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        StorageSystem system = null;
+        for (int round = 0; round < rounds; round++) {
+            system = null;
+            System.gc();
+            startTime = System.nanoTime();
+            system = StorageSystemFactory.newSystem(deviceCapacities, initialComponentMapping, LockingMode.STRIPED);
+            long time = System.nanoTime() - startTime;
+            best = Math.min(best, time);
+            total += time;
+        }
+        report("MAPS", best, total, rounds, components);
+
+        Path snapshot = Files.createTempFile("storage-system", ".snapshot");
+        initialComponentMapping = null;
+        startTime = System.nanoTime();
+        SystemSnapshot.write(system, snapshot);
+        System.out.printf("snapshot of %.1f MB written in %.1f ms%n",
+                Files.size(snapshot) / 1e6, (System.nanoTime() - startTime) / 1e6);
+
+        best = Long.MAX_VALUE;
+        total = 0;
+        for (int round = 0; round < rounds; round++) {
+            system = null;
+            System.gc();
+            startTime = System.nanoTime();
+            system = StorageSystemFactory.restoreSystem(snapshot, LockingMode.STRIPED);
+            long time = System.nanoTime() - startTime;
+            best = Math.min(best, time);
+            total += time;
+        }
+        report("SNAPSHOT", best, total, rounds, components);
+        Files.delete(snapshot);
+    }
+
+    private final static void report(String mode, long best, long total, int rounds, int components) {
+        System.out.printf("%-9s best %8.1f ms (%.0f ns/component), mean %8.1f ms%n",
+                mode, best / 1e6, (double) best / components, total / 1e6 / rounds);
+    }
+}
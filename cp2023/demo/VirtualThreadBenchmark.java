@@ -0,0 +1,120 @@
+package cp2023.demo;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.HashMap;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.demo.BenchmarkSupport.EmptyTransfer;
+import cp2023.solution.AsyncStorageSystem;
+import cp2023.solution.LockingMode;
+import cp2023.solution.StorageSystemFactory;
+
+import static cp2023.demo.BenchmarkSupport.execute;
+import static cp2023.demo.BenchmarkSupport.otherDevice;
+
+/*
+Compares two ways of running a very large number of transferers at the same time, on the same workload.
+Each transferer owns one component and moves it a few times to random devices, and slots of devices are taken by the
+components of transferers only, so many transfers have to wait in queues.
+VIRTUAL: every transferer is a virtual thread, calling the blocking 'execute'. It needs a runtime that has virtual threads
+(Java 21 or newer), otherwise it is skipped. Waits in the system never pin the carrier thread.
+POOL: a bounded pool of platform threads runs transferers with 'executeAsync', so waiting transfers do not keep threads.
+Blocking 'execute' cannot be run by a bounded pool, as all its threads could wait for transfers that are not started yet.
+
+Usage: VirtualThreadBenchmark [transferers] [transfersEach] [devices] [poolThreads]
+ */
+
+public final class VirtualThreadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int transferers = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int transfersEach = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int devices = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int poolThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("transferers=" + transferers + " transfersEach=" + transfersEach + " devices=" + devices);
+        ExecutorService virtualThreads = null;
+        try {
+            virtualThreads = StorageSystemFactory.newVirtualThreadExecutor();
+        } catch (UnsupportedOperationException e) {
+            System.out.println("VIRTUAL: skipped, " + e.getMessage());
+        }
+        if (virtualThreads != null) {
+            long time = runVirtual(newSystem(transferers, devices), virtualThreads, transferers, transfersEach, devices);
+            report("VIRTUAL", time, transferers, transfersEach);
+            virtualThreads.shutdown();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(poolThreads);
+        long time = runPool(newSystem(transferers, devices), pool, transferers, transfersEach, devices);
+        report("POOL(" + poolThreads + ")", time, transferers, transfersEach);
+        pool.shutdown();
+        System.out.println("peak live platform threads: " + ManagementFactory.getThreadMXBean().getPeakThreadCount());
+    }
+
+    //Components of transferers take a half of all slots, each device has the same number of slots.
+    private final static AsyncStorageSystem newSystem(int transferers, int devices) {
+        int slotsPerDevice = Math.max(1, 2 * transferers / devices);
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(devices);
+        for (int i = 0; i < devices; i++) {
+            deviceCapacities.put(new DeviceId(i), slotsPerDevice);
+        }
+        HashMap<ComponentId, DeviceId> initialComponentMapping = new HashMap<>(transferers);
+        for (int c = 0; c < transferers; c++) {
+            initialComponentMapping.put(new ComponentId(c), new DeviceId(c % devices));
+        }
+        return StorageSystemFactory.newAsyncSystem(deviceCapacities, initialComponentMapping, LockingMode.STRIPED);
+    }
+
+    private final static long runVirtual(AsyncStorageSystem system, ExecutorService executor,
+                                         int transferers, int transfersEach, int devices) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(transferers);
+        long startTime = System.nanoTime();
+        for (int c = 0; c < transferers; c++) {
+            int compId = c;
+            executor.execute(() -> {
+                int dev = compId % devices;
+                for (int i = 0; i < transfersEach; i++) {
+                    int dest = otherDevice(dev, devices, ThreadLocalRandom.current());
+                    execute(system, new EmptyTransfer(compId, dev, dest));
+                    dev = dest;
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        return System.nanoTime() - startTime;
+    }
+
+    private final static long runPool(AsyncStorageSystem system, ExecutorService executor,
+                                      int transferers, int transfersEach, int devices) {
+        CompletableFuture<?>[] done = new CompletableFuture<?>[transferers];
+        long startTime = System.nanoTime();
+        for (int c = 0; c < transferers; c++) {
+            done[c] = transferAsync(system, executor, c, c % devices, transfersEach, devices);
+        }
+        CompletableFuture.allOf(done).join();
+        return System.nanoTime() - startTime;
+    }
+
+    //Next transfer of a component is submitted when the previous one completes.
+    private final static CompletableFuture<Void> transferAsync(AsyncStorageSystem system, ExecutorService executor,
+                                                               int compId, int dev, int remaining, int devices) {
+        if (remaining == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        int dest = otherDevice(dev, devices, ThreadLocalRandom.current());
+        return system.executeAsync(new EmptyTransfer(compId, dev, dest), executor)
+                .thenCompose(ignored -> transferAsync(system, executor, compId, dest, remaining - 1, devices));
+    }
+
+    private final static void report(String mode, long time, int transferers, int transfersEach) {
+        System.out.printf("%-10s %10.1f ms %14.0f transfers/s%n",
+                mode, time / 1e6, (double) transferers * transfersEach * 1e9 / time);
+    }
+}
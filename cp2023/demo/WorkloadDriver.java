@@ -0,0 +1,352 @@
+package cp2023.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import cp2023.base.ComponentId;
+import cp2023.base.ComponentTransfer;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+import cp2023.exceptions.TransferException;
+import cp2023.solution.LatencyHistogram;
+import cp2023.solution.LockingMode;
+import cp2023.solution.StorageSystemFactory;
+
+/*
+Configurable load generator for the storage system, reporting throughput and latency percentiles.
+There are 'components' possible components, three quarters of all slots are taken by components at the start,
+and the rest of them are not in the system. Every transferer thread picks a kind of transfer at random, according to
+the given percentages of adds and deletes (the rest are moves), then picks a component of a matching state, with
+popularity following Zipf's law of the given exponent (0 means uniform), and a destination device.
+With 'cycleProbability' the destination is a device that some component has just started to leave, so the transfer
+is likely to wait for its slot, and waiting transfers form chains and cycles. Otherwise it is a random device.
+Destinations are chosen so that the components would fit on devices if all started transfers ended, so the workload
+never waits forever. After every transfer, a transferer sleeps for 'thinkMicros'.
+Measurements start after one second of warm-up. End-to-end latency is the time of 'execute', queue wait is the time
+from calling 'execute' until 'prepare' is called, which includes waiting in a queue for a slot.
+
+Usage: WorkloadDriver [devices] [components] [slotsPerDevice] [threads] [seconds]
+                      [addPercent] [deletePercent] [zipfExponent] [cycleProbability] [thinkMicros] [GLOBAL|STRIPED]
+ */
+
+public final class WorkloadDriver {
+
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final int RECENT_SOURCES = 64;
+    private static final int COMPONENT_TRIES = 64;
+    private static final int DESTINATION_TRIES = 16;
+    private static final int ABSENT = -1;
+
+    private final StorageSystem system;
+    private final int devices;
+    private final int slotsPerDevice;
+    private final int addPercent;
+    private final int deletePercent;
+    private final double cycleProbability;
+    private final long thinkNanos;
+    private final double[] popularity;
+    private final int[] componentOfRank;
+
+    //Device of every component, or ABSENT. Changed only by the transferer that has claimed the component.
+    private final AtomicIntegerArray location;
+    private final AtomicIntegerArray claimed;
+    //Number of components that would be on each device if all started transfers ended.
+    private final AtomicIntegerArray committed;
+    //Devices that components have recently started to leave.
+    private final AtomicIntegerArray recentSources;
+
+    private volatile boolean running = true;
+    private volatile boolean measuring = false;
+
+    public static void main(String[] args) throws InterruptedException {
+        int devices = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int components = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int slotsPerDevice = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        double seconds = args.length > 4 ? Double.parseDouble(args[4]) : 5;
+        int addPercent = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+        int deletePercent = args.length > 6 ? Integer.parseInt(args[6]) : 10;
+        double zipfExponent = args.length > 7 ? Double.parseDouble(args[7]) : 0.99;
+        double cycleProbability = args.length > 8 ? Double.parseDouble(args[8]) : 0.1;
+        int thinkMicros = args.length > 9 ? Integer.parseInt(args[9]) : 0;
+        LockingMode mode = args.length > 10 ? LockingMode.valueOf(args[10]) : LockingMode.STRIPED;
+        if (devices < 2 || addPercent + deletePercent > 100) {
+            throw new IllegalArgumentException("Needs at least two devices, and at most 100% of adds and deletes.");
+        }
+
+        System.out.println("devices=" + devices + " components=" + components + " slotsPerDevice=" + slotsPerDevice
+                + " threads=" + threads + " mode=" + mode);
+        System.out.println("add=" + addPercent + "% delete=" + deletePercent + "% move=" + (100 - addPercent - deletePercent)
+                + "% zipfExponent=" + zipfExponent + " cycleProbability=" + cycleProbability + " thinkMicros=" + thinkMicros);
+        WorkloadDriver driver = new WorkloadDriver(devices, components, slotsPerDevice, addPercent, deletePercent,
+                zipfExponent, cycleProbability, thinkMicros, mode);
+        driver.run(threads, (long) (seconds * 1e9));
+    }
+
+    private WorkloadDriver(int devices, int components, int slotsPerDevice, int addPercent, int deletePercent,
+                           double zipfExponent, double cycleProbability, int thinkMicros, LockingMode mode) {
+        this.devices = devices;
+        this.slotsPerDevice = slotsPerDevice;
+        this.addPercent = addPercent;
+        this.deletePercent = deletePercent;
+        this.cycleProbability = cycleProbability;
+        this.thinkNanos = thinkMicros * 1000L;
+        this.location = new AtomicIntegerArray(components);
+        this.claimed = new AtomicIntegerArray(components);
+        this.committed = new AtomicIntegerArray(devices);
+        this.recentSources = new AtomicIntegerArray(RECENT_SOURCES);
+        for (int i = 0; i < RECENT_SOURCES; i++) {
+            recentSources.set(i, ABSENT);
+        }
+
+        //Popularity ranks are shuffled, so that popular components are both present and absent at the start.
+        this.popularity = cumulativeZipf(components, zipfExponent);
+        this.componentOfRank = new int[components];
+        for (int c = 0; c < components; c++) {
+            componentOfRank[c] = c;
+        }
+        Random random = new Random(components);
+        for (int c = components - 1; c > 0; c--) {
+            int other = random.nextInt(c + 1);
+            int swapped = componentOfRank[c];
+            componentOfRank[c] = componentOfRank[other];
+            componentOfRank[other] = swapped;
+        }
+
+        int initialComponents = (int) Math.min(components, (long) devices * slotsPerDevice * 3 / 4);
+        HashMap<DeviceId, Integer> deviceCapacities = new HashMap<>(devices);
+        for (int i = 0; i < devices; i++) {
+            deviceCapacities.put(new DeviceId(i), slotsPerDevice);
+        }
+        HashMap<ComponentId, DeviceId> initialComponentMapping = new HashMap<>(initialComponents);
+        for (int c = 0; c < components; c++) {
+            if (c < initialComponents) {
+                location.set(c, c % devices);
+                committed.incrementAndGet(c % devices);
+                initialComponentMapping.put(new ComponentId(c), new DeviceId(c % devices));
+            } else {
+                location.set(c, ABSENT);
+            }
+        }
+        this.system = StorageSystemFactory.newSystem(deviceCapacities, initialComponentMapping, mode);
+    }
+
+    private final static double[] cumulativeZipf(int components, double exponent) {
+        double[] cumulative = new double[components];
+        double sum = 0;
+        for (int rank = 0; rank < components; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < components; rank++) {
+            cumulative[rank] /= sum;
+        }
+        return cumulative;
+    }
+
+    private void run(int threads, long measuredNanos) throws InterruptedException {
+        ArrayList<Transferer> transferers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            transferers.add(new Transferer(i));
+        }
+        for (Transferer transferer : transferers) {
+            transferer.start();
+        }
+        Thread.sleep(WARMUP_NANOS / 1_000_000);
+        measuring = true;
+        long startTime = System.nanoTime();
+        Thread.sleep(measuredNanos / 1_000_000);
+        measuring = false;
+        long time = System.nanoTime() - startTime;
+        running = false;
+        for (Transferer transferer : transferers) {
+            transferer.join();
+        }
+
+        LatencyHistogram endToEnd = new LatencyHistogram();
+        LatencyHistogram queueWait = new LatencyHistogram();
+        long adds = 0;
+        long moves = 0;
+        long deletes = 0;
+        long skipped = 0;
+        for (Transferer transferer : transferers) {
+            endToEnd.add(transferer.endToEnd);
+            queueWait.add(transferer.queueWait);
+            adds += transferer.adds;
+            moves += transferer.moves;
+            deletes += transferer.deletes;
+            skipped += transferer.skipped;
+        }
+        long transfers = adds + moves + deletes;
+        System.out.printf("%d transfers in %.2f s: %.0f transfers/s (adds %d, moves %d, deletes %d, skipped picks %d)%n",
+                transfers, time / 1e9, transfers * 1e9 / time, adds, moves, deletes, skipped);
+        report("end-to-end", endToEnd);
+        report("queue wait", queueWait);
+    }
+
+    private final static void report(String name, LatencyHistogram histogram) {
+        System.out.printf("%-12s p50 %10.1f us   p99 %10.1f us   p99.9 %10.1f us%n", name,
+                histogram.getValueAtPercentile(50) / 1e3,
+                histogram.getValueAtPercentile(99) / 1e3,
+                histogram.getValueAtPercentile(99.9) / 1e3);
+    }
+
+    private final class Transferer extends Thread {
+        private final SplittableRandom random;
+        private final LatencyHistogram endToEnd = new LatencyHistogram();
+        private final LatencyHistogram queueWait = new LatencyHistogram();
+        private long adds;
+        private long moves;
+        private long deletes;
+        private long skipped;
+
+        private Transferer(int number) {
+            super("Transferer" + number);
+            this.random = new SplittableRandom(number);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                transferOnce();
+                if (thinkNanos > 0) {
+                    LockSupport.parkNanos(thinkNanos);
+                }
+            }
+        }
+
+        private void transferOnce() {
+            int kind = random.nextInt(100);
+            boolean add = kind < addPercent;
+            boolean delete = !add && kind < addPercent + deletePercent;
+            int compId = claimComponent(add);
+            if (compId == ABSENT) {
+                skipped++;
+                return;
+            }
+            int src = location.get(compId);
+            int dest = ABSENT;
+            if (!delete) {
+                dest = reserveDestination(src);
+                if (dest == ABSENT) {
+                    claimed.set(compId, 0);
+                    skipped++;
+                    return;
+                }
+            }
+            if (!add) {
+                committed.decrementAndGet(src);
+                recentSources.set(random.nextInt(RECENT_SOURCES), src);
+            }
+
+            TimedTransfer transfer = new TimedTransfer(new ComponentId(compId),
+                    add ? null : new DeviceId(src), delete ? null : new DeviceId(dest));
+            long startTime = System.nanoTime();
+            try {
+                system.execute(transfer);
+            } catch (TransferException e) {
+                throw new RuntimeException("Unexpected transfer exception: " + e.toString(), e);
+            }
+            long endTime = System.nanoTime();
+            location.set(compId, dest);
+            claimed.set(compId, 0);
+
+            if (measuring) {
+                endToEnd.record(endTime - startTime);
+                queueWait.record(transfer.prepareTime - startTime);
+                if (add) {
+                    adds++;
+                } else if (delete) {
+                    deletes++;
+                } else {
+                    moves++;
+                }
+            }
+        }
+
+        //Claims a component that is absent for an add, or present otherwise, and returns it, or ABSENT if none was found.
+        private int claimComponent(boolean add) {
+            for (int i = 0; i < COMPONENT_TRIES; i++) {
+                int rank = Arrays.binarySearch(popularity, random.nextDouble());
+                int compId = componentOfRank[rank < 0 ? Math.min(-rank - 1, popularity.length - 1) : rank];
+                if (claimed.compareAndSet(compId, 0, 1)) {
+                    if ((location.get(compId) == ABSENT) == add) {
+                        return compId;
+                    }
+                    claimed.set(compId, 0);
+                }
+            }
+            return ABSENT;
+        }
+
+        //Reserves place on a device other than the source, and returns it, or ABSENT if no place was found.
+        private int reserveDestination(int src) {
+            if (random.nextDouble() < cycleProbability) {
+                int dest = recentSources.get(random.nextInt(RECENT_SOURCES));
+                if (dest != ABSENT && dest != src && reservePlace(dest)) {
+                    return dest;
+                }
+            }
+            for (int i = 0; i < DESTINATION_TRIES; i++) {
+                int dest = random.nextInt(devices);
+                if (dest != src && reservePlace(dest)) {
+                    return dest;
+                }
+            }
+            return ABSENT;
+        }
+
+        private boolean reservePlace(int dev) {
+            int count;
+            do {
+                count = committed.get(dev);
+                if (count >= slotsPerDevice) {
+                    return false;
+                }
+            } while (!committed.compareAndSet(dev, count, count + 1));
+            return true;
+        }
+    }
+
+    private final static class TimedTransfer implements ComponentTransfer {
+        private final ComponentId compId;
+        private final DeviceId srcDevId;
+        private final DeviceId dstDevId;
+        private long prepareTime;
+
+        public TimedTransfer(ComponentId compId, DeviceId srcDevId, DeviceId dstDevId) {
+            this.compId = compId;
+            this.srcDevId = srcDevId;
+            this.dstDevId = dstDevId;
+        }
+
+        @Override
+        public ComponentId getComponentId() {
+            return this.compId;
+        }
+
+        @Override
+        public DeviceId getSourceDeviceId() {
+            return this.srcDevId;
+        }
+
+        @Override
+        public DeviceId getDestinationDeviceId() {
+            return this.dstDevId;
+        }
+
+        @Override
+        public void prepare() {
+            this.prepareTime = System.nanoTime();
+        }
+
+        @Override
+        public void perform() {
+        }
+    }
+}
@@ -18,13 +18,13 @@ public final class ComponentAlreadyExists extends TransferException {
     private final DeviceId    devId;
     
     public ComponentAlreadyExists(ComponentId compId) {
-        super("component " + compId.toString() + " already awaits to be uploaded");
+        super(STACKLESS ? null : message(compId, null));
         this.compId = compId;
         this.devId = null;
     }
     
     public ComponentAlreadyExists(ComponentId compId, DeviceId devId) {
-        super("component " + compId.toString() + " already exists on device " + devId.toString());
+        super(STACKLESS ? null : message(compId, devId));
         this.compId = compId;
         this.devId = devId;
     }
@@ -36,4 +36,16 @@ public final class ComponentAlreadyExists extends TransferException {
     public DeviceId getDeviceId() {
         return this.devId;
     }
+
+    @Override
+    protected String buildMessage() {
+        return message(this.compId, this.devId);
+    }
+
+    private static String message(ComponentId compId, DeviceId devId) {
+        if (devId == null) {
+            return "component " + compId.toString() + " already awaits to be uploaded";
+        }
+        return "component " + compId.toString() + " already exists on device " + devId.toString();
+    }
 }
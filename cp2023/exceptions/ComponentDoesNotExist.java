@@ -18,7 +18,7 @@ public final class ComponentDoesNotExist extends TransferException {
     private final DeviceId    devId;
     
     public ComponentDoesNotExist(ComponentId compId, DeviceId devId) {
-        super("component " + compId.toString() + " does not exist on device " + devId.toString());
+        super(STACKLESS ? null : message(compId, devId));
         this.compId = compId;
         this.devId = devId;
     }
@@ -30,4 +30,13 @@ public final class ComponentDoesNotExist extends TransferException {
     public DeviceId getDeviceId() {
         return this.devId;
     }
+
+    @Override
+    protected String buildMessage() {
+        return message(this.compId, this.devId);
+    }
+
+    private static String message(ComponentId compId, DeviceId devId) {
+        return "component " + compId.toString() + " does not exist on device " + devId.toString();
+    }
 }
@@ -18,9 +18,7 @@ public final class ComponentDoesNotNeedTransfer extends TransferException {
     private final DeviceId    devId;
     
     public ComponentDoesNotNeedTransfer(ComponentId compId, DeviceId devId) {
-        super("component " + compId.toString() +
-                " does not need a transfer from device " + devId.toString() +
-                " to the same device");
+        super(STACKLESS ? null : message(compId, devId));
         this.compId = compId;
         this.devId = devId;
     }
@@ -32,4 +30,15 @@ public final class ComponentDoesNotNeedTransfer extends TransferException {
     public DeviceId getDeviceId() {
         return this.devId;
     }
+
+    @Override
+    protected String buildMessage() {
+        return message(this.compId, this.devId);
+    }
+
+    private static String message(ComponentId compId, DeviceId devId) {
+        return "component " + compId.toString() +
+                " does not need a transfer from device " + devId.toString() +
+                " to the same device";
+    }
 }
@@ -16,11 +16,20 @@ public final class ComponentIsBeingOperatedOn extends TransferException {
     private final ComponentId compId;
     
     public ComponentIsBeingOperatedOn(ComponentId compId) {
-        super("component " + compId.toString() + " is being operated on");
+        super(STACKLESS ? null : message(compId));
         this.compId = compId;
     }
     
     public ComponentId getComponentId() {
         return this.compId;
     }
+
+    @Override
+    protected String buildMessage() {
+        return message(this.compId);
+    }
+
+    private static String message(ComponentId compId) {
+        return "component " + compId.toString() + " is being operated on";
+    }
 }
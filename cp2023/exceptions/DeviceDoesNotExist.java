@@ -16,11 +16,20 @@ public final class DeviceDoesNotExist extends TransferException {
     private final DeviceId devId;
     
     public DeviceDoesNotExist(DeviceId devId) {
-        super("device " + devId.toString() + " does not exist");
+        super(STACKLESS ? null : message(devId));
         this.devId = devId;
     }
     
     public DeviceId getDeviceId() {
         return this.devId;
     }
+
+    @Override
+    protected String buildMessage() {
+        return message(this.devId);
+    }
+
+    private static String message(DeviceId devId) {
+        return "device " + devId.toString() + " does not exist";
+    }
 }
@@ -16,12 +16,21 @@ public final class IllegalTransferType extends TransferException {
     private final ComponentId compId;
     
     public IllegalTransferType(ComponentId compId) {
-        super("both source and destination devices are null " +
-                "for component " + compId.toString());
+        super(STACKLESS ? null : message(compId));
         this.compId = compId;
     }
     
     public ComponentId getComponentId() {
         return this.compId;
     }
+
+    @Override
+    protected String buildMessage() {
+        return message(this.compId);
+    }
+
+    private static String message(ComponentId compId) {
+        return "both source and destination devices are null " +
+                "for component " + compId.toString();
+    }
 }
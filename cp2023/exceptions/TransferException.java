@@ -7,11 +7,39 @@
  */
 package cp2023.exceptions;
 
+/*
+Transfer exceptions are created with a stack trace and a message, unless the system property 'cp2023.exceptions.stackless'
+is true. Then they are created without a stack trace, and their message is built from their ids only when it is read,
+so that clients which use rejected transfers as a cheap 'try' can get hundreds of thousands of them per second.
+Stack trace of such an exception is empty, and everything else about it is the same.
+ */
+
 public abstract class TransferException extends Exception {
 
     private static final long serialVersionUID = -4456854647932628439L;
 
+    static final boolean STACKLESS = Boolean.getBoolean("cp2023.exceptions.stackless");
+
+    //Message is null in the stackless mode, and then it is built by 'buildMessage' when it is read.
     public TransferException(String message) {
         super(message);
     }
+
+    //Stack trace is not taken in the stackless mode. Exception is still created by the same constructor of Throwable
+    //in both modes, so that its cause can be set by 'initCause', as before. Taking the stack trace is synchronized by Throwable itself.
+    @Override
+    public Throwable fillInStackTrace() {
+        return STACKLESS ? this : super.fillInStackTrace();
+    }
+
+    @Override
+    public String getMessage() {
+        String message = super.getMessage();
+        return message != null ? message : buildMessage();
+    }
+
+    //Subclasses that are created without a message build it from their ids.
+    protected String buildMessage() {
+        return null;
+    }
 }
@@ -0,0 +1,29 @@
+package cp2023.solution;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import cp2023.base.ComponentTransfer;
+import cp2023.base.StorageSystem;
+
+/*
+Storage system that can also execute transfers without blocking the thread that submits them.
+Returned future completes after the transfer has ended its 'perform', or completes exceptionally with TransferException
+if the transfer is not correct. Transfer that has to wait does not keep any thread, it is continued later by the executor,
+which also runs its 'prepare' and 'perform'.
+Batch of transfers is placed at once, and gets a future for every transfer, in the order of the collection.
+ */
+
+public interface AsyncStorageSystem extends StorageSystem {
+
+    CompletableFuture<Void> executeAsync(ComponentTransfer transfer);
+
+    CompletableFuture<Void> executeAsync(ComponentTransfer transfer, Executor executor);
+
+    List<CompletableFuture<Void>> executeAll(Collection<? extends ComponentTransfer> transfers);
+
+    List<CompletableFuture<Void>> executeAll(Collection<? extends ComponentTransfer> transfers, Executor executor);
+
+}
@@ -1,81 +1,210 @@
 package cp2023.solution;
 
-import cp2023.base.DeviceId;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
-import java.util.concurrent.Semaphore;
+import cp2023.base.ComponentId;
 
 /*
 Component has its own information describing its current state.
 The information stored here is:
--Source and destination device id,
--Position on these devices,
--Boolean describing if the component is currently operated on,
--Semaphore prepared, needed to determine if the component has already been prepared, when it comes to correct execution of cycle.
+-Id of the component, and its index in the table of components,
+-State: where the component is, and if it is operated on or deleted, packed into one long,
+-Destination device, given as an index of a device, or NO_DEVICE, and position on it,
+-Waiter of its transfer, while the transfer is in a queue of waiting transfers,
+-Time when its transfer was queued, if the system records statistics,
+-Number of the intent of its transfer in the placement log, if the system has one,
+-Its index in the members of the device it is on, changed only while holding the lock of members of that device.
+State holds the source device in bits 32 to 61, and the position on it in bits 0 to 31, which is -1 while the component
+is being added, then the source device is the device it is added to. Bit 62 tells if the component is operated on,
+and bit 63 tells if it has been deleted, so that transfers which still see it know they have to look it up again.
+Transfer claims the component with a single CAS of its state, which fails if another transfer has claimed it first.
+Only the transfer that has claimed the component changes its state, and the rest of its fields, until it ends,
+when it writes the new state at once. Everybody else only reads the state, without any lock.
+Destination is set by the transfer that operates on the component, before the transfer can be seen by other transfers.
  */
 
 public class CompData {
-    private DeviceId srcDevId;
-    private DeviceId destDevId;
-    private int srcDevPos;
-    private int destDevPos;
-    private Semaphore prepared;
-    private boolean isOperatedOn;
+    public static final int NO_DEVICE = -1;
+
+    //Systems can have at most 2^30 devices, so that a device fits in the state.
+    static final int MAX_DEVICES = 1 << 30;
+    private static final long POSITION_MASK = 0xFFFFFFFFL;
+    private static final long DEVICE_MASK = MAX_DEVICES - 1;
+    private static final long OPERATED = 1L << 62;
+    private static final long REMOVED = 1L << 63;
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(CompData.class, "state", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
-    public CompData(DeviceId devId, int srcDevPos){
-        this.srcDevId = devId;
-        this.srcDevPos = srcDevPos;
+    private final ComponentId compId;
+    private int index;
+    private volatile long state;
+    private int destDev;
+    private int destDevPos;
+    private Waiter waiter;
+    private long queuedTime;
+    private long logPosition;
+    private int memberIndex;
+
+    public CompData(ComponentId compId, int dev, int srcDevPos){
+        this.compId = compId;
+        this.index = -1;
+        this.state = pack(dev, srcDevPos);
         this.destDevPos = -1;
-        this.destDevId = null;
-        this.prepared = new Semaphore(0);
+        this.destDev = NO_DEVICE;
     }
 
-    public DeviceId getSrcDevId(){
-        return srcDevId;
+    private static long pack(int dev, int pos){
+        return ((long) dev << 32) | (pos & POSITION_MASK);
     }
 
-    //When component is prepared, it enables the next transfer in a cycle to continue.
-    public void isPrepared(){
-        prepared.release();
+    public static int deviceOf(long state){
+        return (int) ((state >>> 32) & DEVICE_MASK);
     }
 
-    public void waitForPrepare(){
-        try {
-            prepared.acquire();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
+    public static int positionOf(long state){
+        return (int) state;
     }
 
-    public void setDestDevPos(int i){
-        destDevPos = i;
+    public static boolean isOperatedOn(long state){
+        return (state & OPERATED) != 0;
     }
 
-    public void setDestDevId(DeviceId devId){
-        destDevId = devId;
+    public static boolean isRemoved(long state){
+        return (state & REMOVED) != 0;
+    }
+
+    public ComponentId getCompId(){
+        return compId;
+    }
+
+    public int getIndex(){
+        return index;
+    }
+
+    public void setIndex(int i){
+        index = i;
+    }
+
+    public long getState(){
+        return state;
+    }
+
+    public int getSrcDev(){
+        return deviceOf(state);
+    }
+
+    public int getDestDev(){
+        return destDev;
+    }
+
+    public void setDestDev(int dev){
+        destDev = dev;
+    }
+
+    public void setDestDevPos(int i){
+        destDevPos = i;
     }
 
     public int getSrcDevPos(){
-        return srcDevPos;
+        return positionOf(state);
     }
 
     public int getDestDevPos(){
         return destDevPos;
     }
 
+    //Component that is being added does not leave any device.
+    public boolean isBeingAdded(){
+        return positionOf(state) == -1;
+    }
+
+    //Device that the current transfer of the component leaves, or NO_DEVICE if the component is being added.
+    public int getLeftDev(){
+        long current = state;
+        return positionOf(current) == -1 ? NO_DEVICE : deviceOf(current);
+    }
+
+    //Device the component is on, as seen by queries, or NO_DEVICE while it is being added, and after it is deleted.
+    public int getLocation(){
+        long current = state;
+        return positionOf(current) == -1 || isRemoved(current) ? NO_DEVICE : deviceOf(current);
+    }
+
+    public Waiter getWaiter(){
+        return waiter;
+    }
+
+    public void setWaiter(Waiter waiter){
+        this.waiter = waiter;
+    }
+
+    public long getQueuedTime(){
+        return queuedTime;
+    }
+
+    public void setQueuedTime(long time){
+        queuedTime = time;
+    }
+
+    public long getLogPosition(){
+        return logPosition;
+    }
+
+    public void setLogPosition(long position){
+        logPosition = position;
+    }
+
+    public int getMemberIndex(){
+        return memberIndex;
+    }
+
+    public void setMemberIndex(int i){
+        memberIndex = i;
+    }
+
     public boolean isOperatedOn(){
-        return isOperatedOn;
+        return isOperatedOn(state);
     }
 
+    //Component that is being added is claimed before anybody can see it.
     public void operateOn(){
-        isOperatedOn = true;
+        state |= OPERATED;
+    }
+
+    //Claims the component for a transfer, if its state is still 'expected', which the transfer has checked.
+    public boolean operateOn(long expected){
+        return STATE.compareAndSet(this, expected, expected | OPERATED);
+    }
+
+    public boolean isRemoved(){
+        return isRemoved(state);
+    }
+
+    //Transfer that deleted the component ends.
+    public void remove(){
+        state |= REMOVED;
     }
 
-    public void endOperation(){
-        isOperatedOn = false;
+    //Transfer that could not get its place gives the component up, it stays where it was, and is no longer operated on.
+    public void giveUp(){
+        destDev = NO_DEVICE;
+        state = state & ~OPERATED;
     }
 
+    //Transfer that moved or added the component ends, the component is on its destination and is no longer operated on.
+    //State is written last, as the next transfer can claim the component as soon as it is written.
     public void changePosition(){
-        srcDevId = destDevId;
-        srcDevPos = destDevPos;
+        int dev = destDev;
+        destDev = NO_DEVICE;
+        state = pack(dev, destDevPos);
     }
 }
@@ -0,0 +1,79 @@
+package cp2023.solution;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+Table giving every existing component a dense index, so that its information can be found by indexing an array.
+Indexes of deleted components are reused by components added later, so the table is as big as the largest number
+of components that existed at the same time.
+Table is made of chunks of a fixed size, which are never moved, so it can grow while other threads read it without any lock.
+Indexes are given and taken back while holding the monitor of this object, it happens only when components are added and deleted.
+ */
+
+public class ComponentTable {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private volatile AtomicReferenceArray<CompData>[] chunks;
+    private int[] freeIndexes;
+    private int freeCount;
+    private int nextIndex;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ComponentTable(int expectedSize){
+        int chunkCount = Math.max(1, (expectedSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        this.chunks = new AtomicReferenceArray[chunkCount];
+        for (int i = 0; i < chunkCount; i++){
+            chunks[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+        }
+        this.freeIndexes = new int[16];
+        this.freeCount = 0;
+        this.nextIndex = 0;
+    }
+
+    //Gives a free index to a new component, preferring indexes of deleted components.
+    public synchronized int add(CompData comp){
+        int index;
+        if (freeCount > 0){
+            index = freeIndexes[--freeCount];
+        }else{
+            index = nextIndex++;
+            if (index >> CHUNK_BITS == chunks.length){
+                //New chunk is published with a new array of chunks, old chunks stay where they were.
+                AtomicReferenceArray<CompData>[] grown = Arrays.copyOf(chunks, 2 * chunks.length);
+                for (int i = chunks.length; i < grown.length; i++){
+                    grown[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+                }
+                chunks = grown;
+            }
+        }
+        chunks[index >> CHUNK_BITS].set(index & (CHUNK_SIZE - 1), comp);
+        return index;
+    }
+
+    //Puts a component of the initial placement at a given index, before the table is used by any transfer.
+    //Components are put at indexes from 0 to 'count' - 1, possibly by many threads at once,
+    //and then 'setInitialCount' is called. Table has to be created with the expected size of at least 'count'.
+    public void setInitial(int index, CompData comp){
+        chunks[index >> CHUNK_BITS].setPlain(index & (CHUNK_SIZE - 1), comp);
+    }
+
+    public synchronized void setInitialCount(int count){
+        nextIndex = count;
+    }
+
+    //Takes back the index of a deleted component.
+    public synchronized void remove(int index){
+        chunks[index >> CHUNK_BITS].set(index & (CHUNK_SIZE - 1), null);
+        if (freeCount == freeIndexes.length){
+            freeIndexes = Arrays.copyOf(freeIndexes, 2 * freeCount);
+        }
+        freeIndexes[freeCount++] = index;
+    }
+
+    //Information about the component with a given index, or null if there is no such component.
+    public CompData get(int index){
+        return chunks[index >> CHUNK_BITS].get(index & (CHUNK_SIZE - 1));
+    }
+}
@@ -1,76 +1,373 @@
 package cp2023.solution;
 
-import java.util.concurrent.Semaphore;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 
 /*
 Device has its own information describing its current state.
 FreeSpaces: counts all free spaces, including those where there still is a component, but is currently transferred, and soon will be removed.
-Semaphore[] spaces: transfers wait there for the spaces to be completely free.
-Boolean stateOfSpaces: tells if a places on this device is available.
+OccupiedSlots: two bits for every place, bits '2 * (i % 32)' and '2 * (i % 32) + 1' of word 'i / 32' describe place 'i'.
+The first one tells if the place is still physically taken by a component, it is set by the component that came there,
+and cleared when it leaves the place after its 'prepare'. The second one tells if a transfer waits for the place to be left.
+Handoffs: Waiters of transfers that wait for a place to be left by its previous component. A Waiter exists only while
+somebody waits, so a device costs a few bits per place, however big it is. Each place has at most one transfer coming to it,
+and one component leaving it, at a time.
+FreeSlots: bitmap telling if a place on this device is available, bit 'i' of word 'i / 64' describes place 'i'.
+FreeWords: summary of the bitmap, bit 'w' of word 'w / 64' is set when word 'w' of free slots has any available place,
+so that a free slot is found by skipping whole full words at once.
+Members: compact array of the components on this device, so that they are listed in time proportional to their number,
+whatever the size of the device. Every component knows its index in the array of its device, so it is removed in constant time,
+by putting the last member in its place. Component joins the members when the transfer that brought it ends, and leaves them
+when the transfer that takes it away ends, so a device can briefly have more members than places.
+Members are changed only while holding 'membersLock' for writing, which is held only for one change. They are read with
+an optimistic read, which is repeated if they have changed meanwhile, so reading them does not make transfers wait.
+Hint: word of free slots where a slot was recently taken or freed, search for a free slot starts there.
+Free spaces, free slots and free words are changed with CAS, so that transfers can reserve a slot without any lock.
+WaitingTransfers: number of transfers queued for this device, changed only while holding a lock protecting the queue.
+LeavingTransfers: number of queued transfers whose source is this device. Queues of different devices are changed at the same time,
+so it is atomic. It is increased and read only while holding the lock of this device, or the system lock for writing,
+but transfers taken out of queues of other devices decrease it at any time.
+Index: number of the device in the system, from 0 to the number of devices - 1.
+Lock: protects the queue of waiting transfers of this device, and transfers queued to leave it, when the system uses striped locking.
  */
 
 public class DevData {
-    private int size;
-    private int freeSpaces;
-    private Semaphore[] spaces;
-    private boolean[] stateOfSpaces;
+    private static final CompData[] NO_MEMBERS = new CompData[0];
+    //Optimistic reads of members that fail because of concurrent changes, after which a reader yields instead of spinning.
+    private static final int SPINNING_READS = 16;
 
-    private static final boolean CAN_BE_RESERVED = true;
-    private static final boolean CANT_BE_RESERVED = false;
+    private final int size;
+    private final AtomicInteger freeSpaces;
+    private final AtomicLongArray occupiedSlots;
+    private final ConcurrentHashMap<Integer, Waiter> handoffs;
+    private final AtomicLongArray freeSlots;
+    private final AtomicLongArray freeWords;
+    private final StampedLock membersLock;
+    private CompData[] members;
+    private int memberCount;
+    private volatile int hint;
+    private volatile int waitingTransfers;
+    private final AtomicInteger leavingTransfers;
+    private final ReentrantLock lock;
+    private final int index;
 
-    public DevData(int size){
+    public DevData(int size, int index){
         this.size = size;
-        this.freeSpaces = size;
-        this.spaces = new Semaphore[size];
-        this.stateOfSpaces = new boolean[size];
-        for (int i = 0; i < size; i++){
-            spaces[i] = new Semaphore(1);
-            stateOfSpaces[i] = CAN_BE_RESERVED;
+        this.freeSpaces = new AtomicInteger(size);
+        this.occupiedSlots = new AtomicLongArray((size + 31) / 32);
+        this.handoffs = new ConcurrentHashMap<>();
+        this.freeSlots = new AtomicLongArray((size + 63) / 64);
+        this.freeWords = new AtomicLongArray((freeSlots.length() + 63) / 64);
+        this.membersLock = new StampedLock();
+        this.members = NO_MEMBERS;
+        this.memberCount = 0;
+        this.hint = 0;
+        this.waitingTransfers = 0;
+        this.leavingTransfers = new AtomicInteger(0);
+        this.lock = new ReentrantLock();
+        this.index = index;
+        for (int i = 0; i < freeSlots.length(); i++){
+            int slotsInWord = Math.min(64, size - i * 64);
+            freeSlots.set(i, slotsInWord == 64 ? -1L : (1L << slotsInWord) - 1);
+        }
+        for (int i = 0; i < freeWords.length(); i++){
+            int wordsInSummary = Math.min(64, freeSlots.length() - i * 64);
+            freeWords.set(i, wordsInSummary == 64 ? -1L : (1L << wordsInSummary) - 1);
+        }
+    }
+
+    //Marks place 'pos' as taken by a component of the initial placement, before the device is used by any transfer.
+    //Returns false if there is no such place, or it is already taken. Device is published with the system,
+    //so plain accesses are enough. When all places are marked, 'finishInitialPlacement' has to be called.
+    public boolean occupyInitially(int pos){
+        if (pos < 0 || pos >= size){
+            return false;
+        }
+        long word = freeSlots.getPlain(pos / 64);
+        long slot = 1L << (pos % 64);
+        if ((word & slot) == 0){
+            return false;
+        }
+        freeSlots.setPlain(pos / 64, word & ~slot);
+        occupiedSlots.setPlain(pos / 32, occupiedSlots.getPlain(pos / 32) | (1L << (2 * (pos % 32))));
+        freeSpaces.setPlain(freeSpaces.getPlain() - 1);
+        return true;
+    }
+
+    //Device will have 'count' members of the initial placement, which are then set by 'setInitialMember'.
+    public void setInitialMemberCount(int count){
+        members = count == 0 ? NO_MEMBERS : new CompData[count];
+        memberCount = count;
+    }
+
+    //Component of the initial placement is member 'i' of this device. Members of different components
+    //can be set by many threads at once, before the system is published.
+    public void setInitialMember(int i, CompData comp){
+        members[i] = comp;
+        comp.setMemberIndex(i);
+    }
+
+    //Component is now on this device.
+    public void addMember(CompData comp){
+        long stamp = membersLock.writeLock();
+        try {
+            if (memberCount == members.length){
+                members = Arrays.copyOf(members, Math.max(8, 2 * memberCount));
+            }
+            comp.setMemberIndex(memberCount);
+            members[memberCount++] = comp;
+        } finally {
+            membersLock.unlockWrite(stamp);
+        }
+    }
+
+    //Component has left this device, the last member takes its index.
+    public void removeMember(CompData comp){
+        long stamp = membersLock.writeLock();
+        try {
+            int i = comp.getMemberIndex();
+            CompData last = members[--memberCount];
+            members[i] = last;
+            last.setMemberIndex(i);
+            members[memberCount] = null;
+        } finally {
+            membersLock.unlockWrite(stamp);
         }
     }
 
+    //Components on this device, in no particular order.
+    //Members are never read under the lock, so that a transfer ending on this device never waits for a reader.
+    //Read is repeated until no change happened meanwhile. Every change holds the lock only briefly, so the reader spins at first,
+    //and then yields, so that a transfer holding the lock can finish its change even if it shares the processor with the reader.
+    public CompData[] getMembers(){
+        for (int attempt = 0; ; attempt++){
+            long stamp = membersLock.tryOptimisticRead();
+            if (stamp != 0){
+                CompData[] current = members;
+                CompData[] found = Arrays.copyOf(current, Math.min(memberCount, current.length));
+                if (membersLock.validate(stamp)){
+                    return found;
+                }
+            }
+            if (attempt < SPINNING_READS){
+                Thread.onSpinWait();
+            }else{
+                Thread.yield();
+            }
+        }
+    }
+
+    //Removes words without free slots from the summary, and starts searching from the first word that has one.
+    public void finishInitialPlacement(){
+        int first = -1;
+        for (int w = 0; w < freeSlots.length(); w++){
+            if (freeSlots.get(w) == 0){
+                freeWords.set(w / 64, freeWords.get(w / 64) & ~(1L << (w % 64)));
+            }else if (first == -1){
+                first = w;
+            }
+        }
+        hint = Math.max(first, 0);
+    }
+
+    public int getSize(){
+        return size;
+    }
+
     //Trying to reserve a slot, returns a specific position on the device, or -1 if device is full.
+    //Reserved slot is no longer counted as a free space.
     public int reserveSlot(){
-        int result = -1;
-        if (freeSpaces > 0){
-            for (int i = 0; i < size; i++) {
-                if (stateOfSpaces[i] == CAN_BE_RESERVED) {
-                    stateOfSpaces[i] = CANT_BE_RESERVED;
-                    return i;
+        //At first we reserve any free space, then we look for a specific slot.
+        //Slot is marked free before free spaces are increased, so there is at least one free slot for every reservation.
+        int free;
+        do {
+            free = freeSpaces.get();
+            if (free == 0){
+                return -1;
+            }
+        } while (!freeSpaces.compareAndSet(free, free - 1));
+        //Words are checked in the order of the summary, starting from the hint, and wrapping around.
+        //Slot can be taken by another reservation before we get to it, then we go on, and if we have checked every word,
+        //we start again, as the slot that is counted for us is being freed right now.
+        while (true) {
+            int start = hint / 64;
+            for (int i = 0; i < freeWords.length(); i++) {
+                int summaryIndex = start + i < freeWords.length() ? start + i : start + i - freeWords.length();
+                long summary = freeWords.get(summaryIndex);
+                while (summary != 0) {
+                    int pos = takeSlot(summaryIndex * 64 + Long.numberOfTrailingZeros(summary));
+                    if (pos != -1) {
+                        return pos;
+                    }
+                    summary &= summary - 1;
                 }
             }
+            Thread.onSpinWait();
+        }
+    }
+
+    //Takes any free slot from word 'w' of free slots, returns its position, or -1 if the word has no free slot.
+    private int takeSlot(int w){
+        long word = freeSlots.get(w);
+        while (word != 0) {
+            long slot = Long.lowestOneBit(word);
+            if (freeSlots.compareAndSet(w, word, word & ~slot)) {
+                if (word == slot) {
+                    markWordFull(w);
+                }
+                if (hint != w) {
+                    hint = w;
+                }
+                return w * 64 + Long.numberOfTrailingZeros(slot);
+            }
+            word = freeSlots.get(w);
+        }
+        return -1;
+    }
+
+    //Word 'w' has no free slots, so it is removed from the summary.
+    //Slot in this word could have been freed before its bit in the summary was cleared, so we check it again,
+    //and mark the word back if it happened. Slot is always freed before its word is marked in the summary.
+    private void markWordFull(int w){
+        long bit = 1L << (w % 64);
+        freeWords.getAndAccumulate(w / 64, ~bit, (summary, mask) -> summary & mask);
+        if (freeSlots.get(w) != 0) {
+            freeWords.getAndAccumulate(w / 64, bit, (summary, wordBit) -> summary | wordBit);
         }
-        return result;
     }
 
-    //Increases free spaces, also updates the state of specific place.
+    //Reserving a slot for a transfer that has just arrived. If other transfers are already waiting for this device,
+    //they are first to take free slots, so the transfer cannot reserve anything.
+    public int tryReserveSlot(){
+        if (waitingTransfers > 0){
+            return -1;
+        }
+        return reserveSlot();
+    }
+
+    //Increases free spaces, also updates the state of specific place, and its word in the summary.
     public void increaseFreeSpaces(int pos){
-        freeSpaces++;
-        stateOfSpaces[pos] = CAN_BE_RESERVED;
+        int w = pos / 64;
+        freeSlots.getAndAccumulate(w, 1L << (pos % 64), (word, slot) -> word | slot);
+        long bit = 1L << (w % 64);
+        if ((freeWords.get(w / 64) & bit) == 0) {
+            freeWords.getAndAccumulate(w / 64, bit, (summary, wordBit) -> summary | wordBit);
+        }
+        if (hint != w) {
+            hint = w;
+        }
+        freeSpaces.incrementAndGet();
     }
 
-    //Wakes up transfer waiting on a specific position.
+    //Component leaves a specific position. If a transfer already waits for it, the place is handed over to it directly,
+    //and stays occupied, otherwise the place is marked as left.
     public void releaseSlot(int pos){
-        spaces[pos].release();
+        long occupied = 1L << (pos % 32 * 2);
+        long waiting = occupied << 1;
+        while (true) {
+            long word = occupiedSlots.get(pos / 32);
+            if ((word & waiting) != 0){
+                if (occupiedSlots.compareAndSet(pos / 32, word, word & ~waiting)){
+                    handoffs.remove(pos).release();
+                    return;
+                }
+            }else if (occupiedSlots.compareAndSet(pos / 32, word, word & ~occupied)){
+                return;
+            }
+        }
     }
 
-    //Decreases free spaces, updates the state of specific place.
-    public void decreaseFreeSpaces(int pos){
-        freeSpaces--;
-        stateOfSpaces[pos] = CANT_BE_RESERVED;
+    //If transfer wants to acquire specific place, it takes it if the place has been left already,
+    //otherwise it has to wait on a Waiter.
+    public void acquireSlot(int pos){
+        Waiter handoff = occupyOrWait(pos, null, null);
+        if (handoff != null){
+            handoff.await();
+        }
     }
 
-    //While initializing device, this function reserves a place for a component.
-    public void initFreeSpaces(){
-        freeSpaces--;
+    //Asynchronous transfer acquires a specific place, returns true if it has taken the place immediately.
+    //Otherwise the continuation is given to the executor when the place is left.
+    public boolean acquireSlot(int pos, Executor executor, Runnable continuation){
+        return occupyOrWait(pos, executor, continuation) == null;
     }
 
-    //If transfer wants to acquire specific place, it has to wait on a semaphore.
-    public void acquireSlot(int pos){
-        try {
-            spaces[pos].acquire();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("panic: unexpected thread interruption", e);
+    //Takes the place if it has been left already, and returns null. Otherwise returns a Waiter, that is created only now,
+    //and is put in 'handoffs' before the place is marked as awaited. Waiter has a continuation, if it is given.
+    private Waiter occupyOrWait(int pos, Executor executor, Runnable continuation){
+        long occupied = 1L << (pos % 32 * 2);
+        long waiting = occupied << 1;
+        Waiter handoff = null;
+        while (true) {
+            long word = occupiedSlots.get(pos / 32);
+            if ((word & occupied) == 0){
+                if (occupiedSlots.compareAndSet(pos / 32, word, word | occupied)){
+                    //Place was left while the Waiter was created, nobody will release it.
+                    if (handoff != null){
+                        handoffs.remove(pos);
+                    }
+                    return null;
+                }
+            }else{
+                if (handoff == null){
+                    handoff = continuation == null ? new Waiter(null) : new Waiter(null, executor, continuation);
+                    handoffs.put(pos, handoff);
+                }
+                if (occupiedSlots.compareAndSet(pos / 32, word, word | waiting)){
+                    return handoff;
+                }
+            }
         }
     }
+
+    //Transfer that frees a slot has to check this after the slot became free, and transfer that is queued
+    //has to try to reserve a slot after it was counted here, so that at least one of them sees the other.
+    public boolean hasWaitingTransfers(){
+        return waitingTransfers > 0;
+    }
+
+    public void addWaitingTransfer(){
+        waitingTransfers++;
+    }
+
+    public void removeWaitingTransfer(){
+        waitingTransfers--;
+    }
+
+    public int getWaitingTransfers(){
+        return waitingTransfers;
+    }
+
+    public int getFreeSpaces(){
+        return freeSpaces.get();
+    }
+
+    public boolean hasLeavingTransfers(){
+        return leavingTransfers.get() > 0;
+    }
+
+    public void addLeavingTransfer(){
+        leavingTransfers.incrementAndGet();
+    }
+
+    public void removeLeavingTransfer(){
+        leavingTransfers.decrementAndGet();
+    }
+
+    public int getIndex(){
+        return index;
+    }
+
+    public void lock(){
+        lock.lock();
+    }
+
+    public void unlock(){
+        lock.unlock();
+    }
 }
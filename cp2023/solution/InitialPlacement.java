@@ -0,0 +1,92 @@
+package cp2023.solution;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+/*
+Initial state of a system in a dense form, from which StorageSys is built without any further lookups.
+Devices: ids, capacities, and indexes of ids, device with index 'dev' is described at place 'dev' of the arrays.
+Components: ids, indexes of their devices, and their places on these devices, component 'c' is described at place 'c'.
+It is built from the maps given to the factory, or read from a snapshot, or taken from a quiescent system.
+ */
+
+final class InitialPlacement {
+    final DeviceId[] deviceIds;
+    final int[] capacities;
+    final HashMap<DeviceId, Integer> deviceIndexes;
+    final ComponentId[] compIds;
+    final int[] compDevs;
+    final int[] positions;
+
+    InitialPlacement(DeviceId[] deviceIds, int[] capacities, ComponentId[] compIds, int[] compDevs, int[] positions) {
+        this.deviceIds = deviceIds;
+        this.capacities = capacities;
+        this.compIds = compIds;
+        this.compDevs = compDevs;
+        this.positions = positions;
+        this.deviceIndexes = new HashMap<>(2 * deviceIds.length);
+        for (int dev = 0; dev < deviceIds.length; dev++) {
+            if (deviceIndexes.put(deviceIds[dev], dev) != null) {
+                throw new IllegalArgumentException("Device " + deviceIds[dev] + " is given more than once.");
+            }
+        }
+    }
+
+    //Checks the maps given to the factory, and gives every component the next place of its device.
+    //Every component is checked, and capacities of all devices are checked, before anything is placed.
+    static InitialPlacement fromMaps(Map<DeviceId, Integer> deviceTotalSlots,
+                                     Map<ComponentId, DeviceId> componentPlacement) throws IllegalArgumentException {
+        int devices = deviceTotalSlots.size();
+        DeviceId[] deviceIds = new DeviceId[devices];
+        int[] capacities = new int[devices];
+        int dev = 0;
+        for (DeviceId devId : deviceTotalSlots.keySet()) {
+            if (devId == null){
+                throw new IllegalArgumentException("DeviceId cannot be null.");
+            }
+            //Capacity is checked for null before it is unboxed, so that a missing capacity is not a NullPointerException.
+            Integer slots = deviceTotalSlots.get(devId);
+            if (slots == null || slots <= 0){
+                throw new IllegalArgumentException("Device " + devId + " has 0 available slots.");
+            }
+            deviceIds[dev] = devId;
+            capacities[dev] = slots;
+            dev++;
+        }
+
+        int components = componentPlacement.size();
+        ComponentId[] compIds = new ComponentId[components];
+        int[] compDevs = new int[components];
+        int[] positions = new int[components];
+        InitialPlacement placement = new InitialPlacement(deviceIds, capacities, compIds, compDevs, positions);
+        int[] deviceCounts = new int[devices];
+        int c = 0;
+        for (Map.Entry<ComponentId, DeviceId> entry : componentPlacement.entrySet()) {
+            ComponentId compId = entry.getKey();
+            if (compId == null){
+                throw new IllegalArgumentException("ComponentId cannot be null");
+            }
+            DeviceId devId = entry.getValue();
+            if (devId == null){
+                throw new IllegalArgumentException("Component " + compId + " is assigned to a device with null DeviceId");
+            }
+            Integer index = placement.deviceIndexes.get(devId);
+            if (index == null){
+                throw new IllegalArgumentException("Component " + compId + " is assigned to a device " + devId + " that does not exist in the system.");
+            }
+            compIds[c] = compId;
+            compDevs[c] = index;
+            positions[c] = deviceCounts[index]++;
+            c++;
+        }
+        for (dev = 0; dev < devices; dev++) {
+            if (deviceCounts[dev] > capacities[dev]){
+                throw new IllegalArgumentException("Device " + deviceIds[dev] + " has initially too much components assigned to it.");
+            }
+        }
+        return placement;
+    }
+}
@@ -0,0 +1,17 @@
+package cp2023.solution;
+
+/*
+Describes how StorageSys protects its queues of waiting transfers.
+Transfers that can reserve a free slot straight away do not take any lock in either mode,
+and searching for a cycle always locks the whole system.
+Finishing a transfer does not take any lock of queues in either mode, it only publishes the new state of its component.
+GLOBAL: queueing a transfer and waking up waiting transfers also lock the whole system.
+STRIPED: queueing a transfer locks only its source and destination devices, in the order of their indexes, and the whole system
+is locked only if the transfer may close a cycle. Waking up waiting transfers locks only the device whose queue is changed
+(one at a time).
+ */
+
+public enum LockingMode {
+    GLOBAL,
+    STRIPED
+}
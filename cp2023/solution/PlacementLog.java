@@ -0,0 +1,608 @@
+package cp2023.solution;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+/*
+Write-ahead intent log of changes of the placement of components, which lets a system be recovered after a crash.
+It is given to StorageSystemFactory.newDurableSystem, which recovers the placement kept in its directory,
+and the log is used by that system only. It has to be closed when the system is no longer used.
+
+Directory holds snapshots 'snapshot.<n>', written by SystemSnapshot, and logs 'log.<n>'. Snapshot n is the placement
+after all records of logs older than n, and records of log n and newer ones are applied on top of it.
+Every record is the intent of one transfer: id of its component, index of the device it goes to, and its place there,
+or NO_DEVICE if it deletes the component. Intent is appended when the transfer gets its place, before its 'prepare',
+and before the slot it leaves is given to anybody else, so in every prefix of the log no two components are on the same place,
+and no device holds more components than it can. Transfers in a cycle take places of each other, so their intents are
+appended together, and are written in one batch.
+Recovery rolls every durable intent forward, whether its transfer has run its 'prepare' and 'perform' or not.
+Transfer ends only when its intent is durable: it waits for it after its 'perform', while its component is still operated on,
+and only then publishes the change of placement. So a transfer that has ended is never lost, but a transfer that has not ended
+before a crash may be recovered as done, and whoever issued it has to finish or check its operations after recovery.
+Intents are not logged again when transfers end, as a transfer can end before the one that left its place does,
+and no prefix of such a log would be a valid placement.
+
+Records are appended to a buffer in memory, and a single flusher thread writes them in batches, syncing the file once
+for every batch (group commit). Batch is written at most 'maxCommitDelay' after its first record was appended,
+or as soon as it is big enough, and records appended while a batch is synced wait for the next one.
+Batch is a frame: number of its records, CRC32C of the records, and the records, all little-endian ints.
+Frame that was not fully written before a crash does not match its checksum, and it ends the log.
+
+Error of writing the log, or of compacting it, is fatal: the log takes no more intents, and every transfer that waits
+for its intent, or starts later, fails with UncheckedIOException. Transfer that fails this way never publishes its change,
+so the placement in memory never shows a change that is not durable, but the change may still be recovered, if its record
+got to the disk. Components of such transfers stay operated on, and the system has to be recovered from its directory.
+
+When a log is longer than 'compactionBytes', or has records and was opened more than 'compactionInterval' ago,
+next records go to a new log, and a compaction thread writes a new snapshot, made of the previous snapshot and the closed logs,
+and then deletes them. Flusher checks the interval after every batch, and also while it has nothing to write,
+so records stop being only in logs at most 'compactionInterval' after they were written, even if no more come.
+Compaction never stops transfers.
+ */
+
+public final class PlacementLog implements AutoCloseable {
+    static final int RECORD_BYTES = 12;
+    private static final int MAGIC = 0x4350574C;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int BATCH_BYTES = 1 << 16;
+    private static final long MAX_COMPACTION_BYTES = 1L << 30;
+    private static final Duration DEFAULT_COMPACTION_INTERVAL = Duration.ofMinutes(1);
+    private static final String SNAPSHOT = "snapshot.";
+    private static final String LOG = "log.";
+
+    private final Path directory;
+    private final long maxCommitDelay;
+    private final long compactionBytes;
+    private final long compactionInterval;
+
+    //Buffers of records, appended ones, and the one that has been written last and can be reused,
+    //or null while it is being written. Both, and the numbers of records, are guarded by 'lock'.
+    private final ReentrantLock lock;
+    private final Condition pendingRecords;
+    private final Condition durableRecords;
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+    private long firstPendingTime;
+    private long appended;
+    private volatile long durable;
+    private final ArrayList<DurableAction> actions;
+    private IOException failure;
+    private boolean closed;
+
+    //Used only by the flusher thread, after the log is recovered.
+    private FileChannel channel;
+    private long logGeneration;
+    private long logBytes;
+    private long logOpenedTime;
+    private final ByteBuffer frameHeader;
+    private final CRC32C checksum;
+    private Thread flusher;
+
+    private volatile long snapshotGeneration;
+    private final AtomicBoolean compacting;
+    private volatile Thread compaction;
+    private volatile boolean attached;
+
+    private volatile long batches;
+
+    public PlacementLog(Path directory, Duration maxCommitDelay, long compactionBytes) {
+        this(directory, maxCommitDelay, compactionBytes, DEFAULT_COMPACTION_INTERVAL);
+    }
+
+    public PlacementLog(Path directory, Duration maxCommitDelay, long compactionBytes, Duration compactionInterval) {
+        if (maxCommitDelay.isNegative()) {
+            throw new IllegalArgumentException("Commit delay cannot be negative.");
+        }
+        if (compactionBytes <= 0 || compactionBytes > MAX_COMPACTION_BYTES) {
+            throw new IllegalArgumentException("Log has to be compacted after more than 0 bytes, and at most " + MAX_COMPACTION_BYTES + ".");
+        }
+        if (compactionInterval.isNegative() || compactionInterval.isZero()) {
+            throw new IllegalArgumentException("Log has to be compacted after an interval longer than 0.");
+        }
+        this.directory = directory;
+        this.maxCommitDelay = maxCommitDelay.toNanos();
+        this.compactionBytes = compactionBytes;
+        this.compactionInterval = compactionInterval.toNanos();
+        this.lock = new ReentrantLock();
+        this.pendingRecords = lock.newCondition();
+        this.durableRecords = lock.newCondition();
+        this.pending = ByteBuffer.allocate(BATCH_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        this.spare = ByteBuffer.allocate(BATCH_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        this.actions = new ArrayList<>();
+        this.frameHeader = ByteBuffer.allocate(FRAME_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        this.checksum = new CRC32C();
+        this.compacting = new AtomicBoolean();
+    }
+
+    //Placement kept in the directory, or the given one, if the directory does not hold any placement yet.
+    //Logs are applied to the newest snapshot, and the result becomes a new snapshot, after which the flusher starts.
+    InitialPlacement recover(Map<DeviceId, Integer> deviceTotalSlots,
+                             Map<ComponentId, DeviceId> componentPlacement) throws IOException {
+        synchronized (this) {
+            if (attached) {
+                throw new IllegalStateException("Placement log is already used by another system.");
+            }
+            attached = true;
+        }
+        Files.createDirectories(directory);
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        listFiles(snapshots, logs);
+
+        InitialPlacement placement;
+        long generation;
+        if (snapshots.isEmpty()) {
+            if (!logs.isEmpty()) {
+                throw new IOException("Directory " + directory + " has logs of placement, but no snapshot of it.");
+            }
+            placement = InitialPlacement.fromMaps(deviceTotalSlots, componentPlacement);
+            generation = 0;
+            SystemSnapshot.write(placement, snapshotPath(generation));
+        } else {
+            generation = snapshots.lastKey();
+            placement = SystemSnapshot.read(snapshots.lastEntry().getValue());
+            PlacementReplay replay = new PlacementReplay(placement);
+            for (Map.Entry<Long, Path> log : logs.tailMap(generation).entrySet()) {
+                readLog(log.getValue(), replay);
+            }
+            //Snapshot is written again only if any record changed it, with a generation newer than any log.
+            if (replay.getRecords() > 0) {
+                placement = replay.toPlacement();
+                generation = Math.max(generation, logs.lastKey()) + 1;
+                SystemSnapshot.write(placement, snapshotPath(generation));
+            }
+        }
+        for (Path snapshot : snapshots.headMap(generation).values()) {
+            Files.delete(snapshot);
+        }
+        for (Path log : logs.values()) {
+            Files.delete(log);
+        }
+        snapshotGeneration = generation;
+        openLog(generation);
+        flusher = new Thread(this::flush, "placement-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        return placement;
+    }
+
+    //Appends the intent of the transfer of 'comp', which has got its place, and returns its number in the log.
+    long appendIntent(CompData comp) {
+        lock.lock();
+        try {
+            return appendRecord(comp);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Appends intents of transfers in a cycle at once, so that they are written in the same batch.
+    //Returns the number of the last one.
+    long appendIntent(CompData[] cycle, int cycleLength) {
+        lock.lock();
+        try {
+            long number = 0;
+            for (int i = 0; i < cycleLength; i++) {
+                number = appendRecord(cycle[i]);
+            }
+            return number;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Appends an intent that cancels the intent of a transfer that has been undone before the slot it leaves became free:
+    //the component is put back on its place, or deleted, if it was being added. Place of the undone transfer
+    //is given to nobody else before this intent is appended, so every prefix of the log stays a valid placement.
+    long appendRevert(CompData comp) {
+        lock.lock();
+        try {
+            int dev = comp.getLeftDev();
+            return appendRecord(comp.getCompId(), dev, dev == CompData.NO_DEVICE ? -1 : comp.getSrcDevPos());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long appendRecord(CompData comp) {
+        int dev = comp.getDestDev();
+        return appendRecord(comp.getCompId(), dev, dev == CompData.NO_DEVICE ? -1 : comp.getDestDevPos());
+    }
+
+    private long appendRecord(ComponentId compId, int dev, int pos) {
+        if (failure != null) {
+            throw failed(failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Placement log is closed.");
+        }
+        if (pending.remaining() < RECORD_BYTES) {
+            pending = ByteBuffer.allocate(2 * pending.capacity()).order(ByteOrder.LITTLE_ENDIAN).put(pending.flip());
+        }
+        if (pending.position() == 0) {
+            firstPendingTime = System.nanoTime();
+            pendingRecords.signal();
+        }
+        pending.putInt(compId.getId())
+                .putInt(dev)
+                .putInt(pos);
+        if (pending.position() >= BATCH_BYTES && pending.position() < BATCH_BYTES + RECORD_BYTES) {
+            pendingRecords.signal();
+        }
+        return ++appended;
+    }
+
+    //Waits until record 'number' is durable.
+    void awaitDurable(long number) {
+        if (durable >= number) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (durable < number && failure == null) {
+                durableRecords.awaitUninterruptibly();
+            }
+            if (durable < number) {
+                throw failed(failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Gives the action to the executor when record 'number' is durable, or completes the future exceptionally if it cannot be.
+    void runWhenDurable(long number, Executor executor, Runnable action, CompletableFuture<Void> done) {
+        if (durable < number) {
+            lock.lock();
+            try {
+                if (durable < number && failure == null) {
+                    actions.add(new DurableAction(number, executor, action, done));
+                    return;
+                }
+                if (durable < number) {
+                    done.completeExceptionally(failed(failure));
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        executor.execute(action);
+    }
+
+    private static UncheckedIOException failed(IOException failure) {
+        return new UncheckedIOException("Placement log cannot be written, the system has to be recovered from its directory.", failure);
+    }
+
+    //Number of batches synced so far, each of them is one call of 'force'.
+    public long getBatches() {
+        return batches;
+    }
+
+    //Number of records that are durable.
+    public long getDurableRecords() {
+        return durable;
+    }
+
+    //Writes all appended records, and stops the flusher and the compaction, then throws the error of the log, if it has failed.
+    //Log that has failed is already closed, but closing it still waits for its threads, and reports the error.
+    //System of the log cannot execute any more transfers.
+    @Override
+    public void close() throws IOException {
+        Thread flusherThread;
+        lock.lock();
+        try {
+            closed = true;
+            pendingRecords.signal();
+            flusherThread = flusher;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (flusherThread != null) {
+                flusherThread.join();
+            }
+            Thread compactionThread = compaction;
+            if (compactionThread != null) {
+                compactionThread.join();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    //Loop of the flusher thread. It waits for the first record of a batch, then for the batch to fill up or for its delay to pass,
+    //and writes it while new records are appended to the other buffer.
+    //If no record comes before the log is due to be compacted, it rotates the log instead.
+    private void flush() {
+        while (true) {
+            ByteBuffer batch = null;
+            long batchEnd = 0;
+            lock.lock();
+            try {
+                long wait;
+                while (pending.position() == 0 && !closed && (wait = untilCompaction()) > 0) {
+                    try {
+                        pendingRecords.awaitNanos(wait);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException("panic: unexpected thread interruption", e);
+                    }
+                }
+                if (pending.position() == 0) {
+                    if (closed) {
+                        return;
+                    }
+                } else {
+                    while (!closed && pending.position() < BATCH_BYTES
+                            && (wait = firstPendingTime + maxCommitDelay - System.nanoTime()) > 0) {
+                        try {
+                            pendingRecords.awaitNanos(wait);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException("panic: unexpected thread interruption", e);
+                        }
+                    }
+                    batch = pending;
+                    pending = spare;
+                    spare = null;
+                    batchEnd = appended;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            //All records are durable, so nobody waits for the flusher, and an error only fails the log.
+            if (batch == null) {
+                try {
+                    rotate();
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+                continue;
+            }
+
+            IOException error = null;
+            try {
+                writeBatch(batch.flip());
+            } catch (IOException e) {
+                error = e;
+            }
+
+            ArrayList<DurableAction> ready = new ArrayList<>();
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                    closed = true;
+                } else {
+                    durable = batchEnd;
+                }
+                spare = batch.capacity() == BATCH_BYTES ? batch.clear() : ByteBuffer.allocate(BATCH_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                for (Iterator<DurableAction> iterator = actions.iterator(); iterator.hasNext(); ) {
+                    DurableAction action = iterator.next();
+                    if (action.number <= batchEnd || error != null) {
+                        ready.add(action);
+                        iterator.remove();
+                    }
+                }
+                durableRecords.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            for (DurableAction action : ready) {
+                if (error == null) {
+                    action.executor.execute(action.action);
+                } else {
+                    action.done.completeExceptionally(failed(error));
+                }
+            }
+            if (error != null) {
+                return;
+            }
+        }
+    }
+
+    private void writeBatch(ByteBuffer batch) throws IOException {
+        checksum.reset();
+        checksum.update(batch.duplicate());
+        frameHeader.clear();
+        frameHeader.putInt(batch.remaining() / RECORD_BYTES).putInt((int) checksum.getValue()).flip();
+        long frameBytes = FRAME_HEADER_BYTES + batch.remaining();
+        ByteBuffer[] frame = {frameHeader, batch};
+        while (batch.hasRemaining()) {
+            channel.write(frame);
+        }
+        channel.force(false);
+        batches++;
+        logBytes += frameBytes;
+        if (logBytes >= compactionBytes || untilCompaction() <= 0) {
+            rotate();
+        }
+    }
+
+    //Time left until the current log is due to be compacted, which never happens to a log with no records.
+    private long untilCompaction() {
+        if (logBytes == HEADER_BYTES) {
+            return Long.MAX_VALUE;
+        }
+        return logOpenedTime + compactionInterval - System.nanoTime();
+    }
+
+    //Next records go to a new log, and closed logs are compacted, unless a compaction is still running,
+    //then they will be compacted by the next one.
+    private void rotate() throws IOException {
+        channel.close();
+        openLog(logGeneration + 1);
+        if (compacting.compareAndSet(false, true)) {
+            long lastLog = logGeneration - 1;
+            Thread thread = new Thread(() -> compact(lastLog), "placement-log-compaction");
+            thread.setDaemon(true);
+            compaction = thread;
+            thread.start();
+        }
+    }
+
+    private void openLog(long generation) throws IOException {
+        channel = FileChannel.open(logPath(generation), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        logGeneration = generation;
+        logBytes = HEADER_BYTES;
+        logOpenedTime = System.nanoTime();
+    }
+
+    //Writes snapshot 'lastLog' + 1, made of the current snapshot and logs up to 'lastLog', which are all closed,
+    //and deletes them when the new snapshot is in place.
+    //Error of the compaction fails the log, as an error of writing does, and is thrown by 'close', as nobody else would see it.
+    //Directory can still be recovered, since nothing is deleted before the new snapshot is written.
+    private void compact(long lastLog) {
+        try {
+            long generation = snapshotGeneration;
+            PlacementReplay replay = new PlacementReplay(SystemSnapshot.read(snapshotPath(generation)));
+            for (long log = generation; log <= lastLog; log++) {
+                readLog(logPath(log), replay);
+            }
+            SystemSnapshot.write(replay.toPlacement(), snapshotPath(lastLog + 1));
+            snapshotGeneration = lastLog + 1;
+            Files.delete(snapshotPath(generation));
+            for (long log = generation; log <= lastLog; log++) {
+                Files.delete(logPath(log));
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    //Log takes no more records, and transfers waiting for their records to be durable get the error.
+    //Flusher writes the records that it already has, and stops.
+    private void fail(IOException error) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = error;
+            }
+            closed = true;
+            pendingRecords.signal();
+            durableRecords.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Applies complete frames of a log. The first frame that is cut short, or does not match its checksum, ends the log.
+    private static void readLog(Path file, PlacementReplay replay) throws IOException {
+        try (FileChannel log = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (log.size() > Integer.MAX_VALUE) {
+                throw new IOException("Placement log " + file + " is too long.");
+            }
+            MappedByteBuffer mapped = log.map(FileChannel.MapMode.READ_ONLY, 0, log.size());
+            ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_BYTES) {
+                return;
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("File " + file + " is not a placement log.");
+            }
+            CRC32C frameChecksum = new CRC32C();
+            while (buffer.remaining() >= FRAME_HEADER_BYTES) {
+                int records = buffer.getInt();
+                int expected = buffer.getInt();
+                if (records <= 0 || (long) records * RECORD_BYTES > buffer.remaining()) {
+                    return;
+                }
+                ByteBuffer frame = buffer.slice(buffer.position(), records * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                frameChecksum.reset();
+                frameChecksum.update(frame.duplicate());
+                if ((int) frameChecksum.getValue() != expected) {
+                    return;
+                }
+                replay.apply(frame);
+                buffer.position(buffer.position() + records * RECORD_BYTES);
+            }
+        }
+    }
+
+    //Finds snapshots and logs of the directory by their generations, and removes files left by interrupted snapshots.
+    private void listFiles(TreeMap<Long, Path> snapshots, TreeMap<Long, Path> logs) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.delete(file);
+                } else if (name.startsWith(SNAPSHOT)) {
+                    snapshots.put(generation(name, SNAPSHOT), file);
+                } else if (name.startsWith(LOG)) {
+                    logs.put(generation(name, LOG), file);
+                }
+            }
+        }
+    }
+
+    private long generation(String name, String prefix) throws IOException {
+        try {
+            return Long.parseLong(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("File " + directory.resolve(name) + " is neither a snapshot nor a log of placement.", e);
+        }
+    }
+
+    private Path snapshotPath(long generation) {
+        return directory.resolve(SNAPSHOT + generation);
+    }
+
+    private Path logPath(long generation) {
+        return directory.resolve(LOG + generation);
+    }
+
+    //End of an asynchronous transfer, run when its record is durable, or its future, failed if the record cannot be written.
+    private static final class DurableAction {
+        private final long number;
+        private final Executor executor;
+        private final Runnable action;
+        private final CompletableFuture<Void> done;
+
+        private DurableAction(long number, Executor executor, Runnable action, CompletableFuture<Void> done) {
+            this.number = number;
+            this.executor = executor;
+            this.action = action;
+            this.done = done;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package cp2023.solution;
+
+import java.util.List;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+
+/*
+Read-only questions about the placement of components, implemented by every system created by StorageSystemFactory.
+Answers are read from structures that transfers update anyway, without taking any lock, so queries never wait
+for transfers, and never make transfers wait.
+Component is reported on the device it was on when its last transfer ended, so a component that is being moved
+is still on its source device, a component that is being added is not on any device yet, and a component
+that is being deleted is still on its device. Answers about different components and devices are not taken at the same moment.
+Free slots of a device are those that no transfer has reserved, occupied slots are all the others,
+so a slot that is being left counts as free as soon as its component got a place elsewhere.
+Components on a device are listed from the members of that device, in time proportional to their number,
+not to the number of places of the device, nor to all components of the system. Members are read optimistically,
+and the read is repeated until no transfer has changed them meanwhile, so listing them never makes transfers wait.
+Moved component leaves the members of its source device before it joins those of its destination, when its transfer ends,
+so for that short moment it is listed on neither device, although 'locate' still gives its source device.
+Listing it on both devices instead would need a component to be a member of two devices at once.
+Device that does not exist in the system is an IllegalArgumentException.
+ */
+
+public interface PlacementQueries {
+
+    //Device of the component, or null if it does not exist.
+    DeviceId locate(ComponentId compId);
+
+    int freeSlots(DeviceId devId);
+
+    int occupiedSlots(DeviceId devId);
+
+    List<ComponentId> componentsOn(DeviceId devId);
+
+}
@@ -0,0 +1,135 @@
+package cp2023.solution;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import cp2023.base.ComponentId;
+
+/*
+Placement of components that records of a placement log are applied to, during recovery and compaction.
+Components are kept in columns: ids, indexes of devices and places, as in InitialPlacement, and they are found
+by their ids through an open addressing table of indexes of the columns, so that millions of components
+do not need an object each. Deleted component keeps its place in the columns, with NO_DEVICE as its device,
+and gets it back if it is added again.
+ */
+
+final class PlacementReplay {
+    private static final int EMPTY = -1;
+
+    private final InitialPlacement base;
+    private int[] ids;
+    private int[] devs;
+    private int[] positions;
+    private int size;
+    private int[] table;
+    private int records;
+
+    PlacementReplay(InitialPlacement base) {
+        this.base = base;
+        int components = base.compIds.length;
+        this.ids = new int[Math.max(16, components)];
+        this.devs = Arrays.copyOf(base.compDevs, ids.length);
+        this.positions = Arrays.copyOf(base.positions, ids.length);
+        this.size = components;
+        this.table = new int[tableSize(ids.length)];
+        Arrays.fill(table, EMPTY);
+        for (int c = 0; c < components; c++) {
+            ids[c] = base.compIds[c].getId();
+            insert(c);
+        }
+    }
+
+    //Applies records from the buffer, from its position to its limit.
+    //Device and place of every record are checked, so that a damaged log cannot put a component outside of its device.
+    void apply(ByteBuffer records) throws IOException {
+        while (records.remaining() >= PlacementLog.RECORD_BYTES) {
+            int id = records.getInt();
+            int dev = records.getInt();
+            int pos = records.getInt();
+            if (dev != CompData.NO_DEVICE && (dev < 0 || dev >= base.capacities.length || pos < 0 || pos >= base.capacities[dev])) {
+                throw new IOException("Placement log is damaged, component " + id + " is not put on a place of any device.");
+            }
+            int c = find(id);
+            if (c == EMPTY) {
+                if (dev == CompData.NO_DEVICE) {
+                    continue;
+                }
+                c = add(id);
+            }
+            devs[c] = dev;
+            positions[c] = pos;
+            this.records++;
+        }
+    }
+
+    //Number of records applied so far.
+    int getRecords() {
+        return records;
+    }
+
+    //Placement of the components that exist after all records, on the devices of the base placement.
+    InitialPlacement toPlacement() {
+        int components = 0;
+        for (int c = 0; c < size; c++) {
+            if (devs[c] != CompData.NO_DEVICE) {
+                components++;
+            }
+        }
+        ComponentId[] compIds = new ComponentId[components];
+        int[] compDevs = new int[components];
+        int[] compPositions = new int[components];
+        int next = 0;
+        for (int c = 0; c < size; c++) {
+            if (devs[c] != CompData.NO_DEVICE) {
+                compIds[next] = c < base.compIds.length ? base.compIds[c] : new ComponentId(ids[c]);
+                compDevs[next] = devs[c];
+                compPositions[next] = positions[c];
+                next++;
+            }
+        }
+        return new InitialPlacement(base.deviceIds, base.capacities, compIds, compDevs, compPositions);
+    }
+
+    private int add(int id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * size);
+            devs = Arrays.copyOf(devs, 2 * size);
+            positions = Arrays.copyOf(positions, 2 * size);
+            table = new int[tableSize(ids.length)];
+            Arrays.fill(table, EMPTY);
+            for (int c = 0; c < size; c++) {
+                insert(c);
+            }
+        }
+        ids[size] = id;
+        insert(size);
+        return size++;
+    }
+
+    //Table has at least twice as many slots as there are columns, so it is never full.
+    private static int tableSize(int columns) {
+        return Integer.highestOneBit(columns) << 2;
+    }
+
+    private int slotOf(int id) {
+        return (id * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(table.length) + 1);
+    }
+
+    private void insert(int c) {
+        int slot = slotOf(ids[c]);
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & (table.length - 1);
+        }
+        table[slot] = c;
+    }
+
+    private int find(int id) {
+        for (int slot = slotOf(id); table[slot] != EMPTY; slot = (slot + 1) & (table.length - 1)) {
+            if (ids[table[slot]] == id) {
+                return table[slot];
+            }
+        }
+        return EMPTY;
+    }
+}
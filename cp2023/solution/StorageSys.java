@@ -3,379 +3,1357 @@ package cp2023.solution;
 import cp2023.base.ComponentId;
 import cp2023.base.ComponentTransfer;
 import cp2023.base.DeviceId;
-import cp2023.base.StorageSystem;
 import cp2023.exceptions.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.concurrent.Semaphore;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+import static cp2023.solution.CompData.NO_DEVICE;
+
+public class StorageSys implements AsyncStorageSystem, PlacementQueries {
+    //Index returned for a device that does not exist in the system.
+    private static final int UNKNOWN_DEVICE = -2;
+
+    //Problems found while checking a transfer, each of them is turned into its exception by 'rejection'.
+    private static final int CORRECT = 0;
+    private static final int ILLEGAL_TYPE = 1;
+    private static final int UNKNOWN_SOURCE = 2;
+    private static final int UNKNOWN_DESTINATION = 3;
+    private static final int ALREADY_EXISTS = 4;
+    private static final int DOES_NOT_EXIST = 5;
+    private static final int DOES_NOT_NEED_TRANSFER = 6;
+    private static final int BEING_OPERATED_ON = 7;
+
+    //Initial placements of at least this many components are placed in parallel, in ranges of the given size.
+    private static final int PARALLEL_PLACEMENT = 1 << 16;
+    private static final int PLACEMENT_RANGE = 1 << 14;
+
+    //Ids are translated to dense indexes only when a transfer starts, everything else uses indexes.
+    //Devices get indexes from 0 to the number of devices - 1 when the system is created, and they never change.
+    //Components get indexes from the table of components when they are created, and give them back when they are deleted.
+    private final HashMap<DeviceId, Integer> deviceIndexes;
+    private final DeviceId[] deviceIds;
+    private final ConcurrentHashMap<ComponentId, CompData> componentInformation;
 
-public class StorageSys implements StorageSystem {
     //Each device and component has its own information, specifying its current state.
-    private final HashMap<DeviceId, DevData> deviceInformation;
-    private final HashMap<ComponentId, CompData> componentInformation;
+    private final DevData[] deviceInformation;
+    private final ComponentTable componentTable;
 
-    //Below hashmaps are a graph representation, needed for DFS
-    private final HashMap<DeviceId, LinkedList<ComponentTransfer>> waitingTransfers;
-    private final HashMap<DeviceId, LinkedList<Semaphore>> waitingTransfersSemaphores;
+    //Below array is a graph representation, needed for DFS, queues are indexed by the index of their destination device.
+    private final WaiterQueue[] waitingTransfers;
 
-    //Mutex for protection of the data, needed while checking if transfer is correct, is possible to execute,
-    //searching for a cycle, or updating data at the end of a transfer.
-    private final Semaphore mutex;
+    //Lock for protection of the queues of waiting transfers, needed while queueing a transfer, searching for a cycle,
+    //or waking up transfers. Transfer that can reserve a free slot straight away does not take it at all,
+    //and no transfer takes it when it ends.
+    //Searching for a cycle always takes it for writing, so that the graph of waiting transfers does not change during DFS.
+    //In GLOBAL mode, queueing and waking up transfers take it for writing as well. In STRIPED mode they take it for reading,
+    //and lock only the devices whose queues and counters they read or change: waking up locks one device at a time,
+    //and queueing locks the source and the destination of the transfer, and takes the lock for writing only if
+    //the transfer may close a cycle.
+    //Every wait uses locks and Semaphores from java.util.concurrent, and no thread waits while holding a monitor,
+    //as the monitor of the table of components guards only short updates, and components are claimed with CAS.
+    //Because of that, transfers can be executed by virtual threads, and a waiting transfer never pins the carrier thread.
+    private final LockingMode lockingMode;
+    private final ReentrantReadWriteLock systemLock;
+
+    //Memory reused by every search for a cycle, so that searching does not allocate anything.
+    //Vertexes are identified by indexes of devices, and are marked as visited with the number of the current search,
+    //so that nothing has to be cleared between searches. Transfers are identified by indexes of their components.
+    //Search of a batch marks vertexes on its current path with the negated number, and keeps the path in 'pathDevs',
+    //with the next edge of every vertex on it in 'pathEdges'.
+    //It is used only while holding the system lock for writing.
+    private final int[] visited;
+    private final int[] reachedBy;
+    private int[] dfsStack;
+    private int[] cycle;
+    private final int[] pathDevs;
+    private final Waiter[] pathEdges;
+    private int searchNumber;
+
+    //Histograms of durations of phases of transfers, or null if the system does not record them.
+    private final TransferStatistics statistics;
+
+    //Log that the intent of every transfer is appended to when the transfer gets its place, or null if the system is not durable.
+    //Transfer ends only when its intent is durable.
+    private final PlacementLog log;
+
+    //Counters read by StorageSystemMonitor. They are striped, so that transfers updating them at the same time do not contend.
+    private final LongAdder operatedComponents;
+    private final LongAdder cyclesResolved;
+    private final LongAdder chainWakeups;
+    private final ConcurrentHashMap<String, LongAdder> rejectedTransfers;
 
     public StorageSys(Map<DeviceId, Integer> deviceTotalSlots,
                       Map<ComponentId, DeviceId> componentPlacement) throws IllegalArgumentException {
-        //At first, we have to check if arguments are correct.
-        if (deviceTotalSlots.isEmpty()){
+        this(deviceTotalSlots, componentPlacement, LockingMode.GLOBAL);
+    }
+
+    public StorageSys(Map<DeviceId, Integer> deviceTotalSlots,
+                      Map<ComponentId, DeviceId> componentPlacement,
+                      LockingMode lockingMode) throws IllegalArgumentException {
+        this(deviceTotalSlots, componentPlacement, lockingMode, null);
+    }
+
+    public StorageSys(Map<DeviceId, Integer> deviceTotalSlots,
+                      Map<ComponentId, DeviceId> componentPlacement,
+                      LockingMode lockingMode,
+                      TransferStatistics statistics) throws IllegalArgumentException {
+        this(InitialPlacement.fromMaps(deviceTotalSlots, componentPlacement), lockingMode, statistics, null);
+    }
+
+    //System built from a checked placement, given by the factory, or read from a snapshot, or recovered by a placement log.
+    StorageSys(InitialPlacement initial, LockingMode lockingMode, TransferStatistics statistics,
+               PlacementLog log) throws IllegalArgumentException {
+        if (initial.deviceIds.length == 0){
             throw new IllegalArgumentException("Created system has 0 devices.");
         }
-        this.deviceInformation = new HashMap<>();
-        this.waitingTransfers = new HashMap<>();
-        this.waitingTransfersSemaphores = new HashMap<>();
-        for (DeviceId devId : deviceTotalSlots.keySet()) {
-            if (devId == null){
-                throw new IllegalArgumentException("DeviceId cannot be null.");
+        if (initial.deviceIds.length > CompData.MAX_DEVICES){
+            throw new IllegalArgumentException("Created system has more than " + CompData.MAX_DEVICES + " devices.");
+        }
+        int devices = initial.deviceIds.length;
+        this.deviceIndexes = initial.deviceIndexes;
+        this.deviceIds = initial.deviceIds;
+        this.deviceInformation = new DevData[devices];
+        this.waitingTransfers = new WaiterQueue[devices];
+        for (int dev = 0; dev < devices; dev++) {
+            deviceInformation[dev] = new DevData(initial.capacities[dev], dev);
+            waitingTransfers[dev] = new WaiterQueue();
+        }
+
+        //Every device marks places of its initial components at once, instead of searching for a free slot for every component.
+        //Places are grouped by their devices first, so that marking does not jump between devices for every component.
+        int components = initial.compIds.length;
+        int[] deviceStarts = new int[devices + 1];
+        for (int c = 0; c < components; c++) {
+            deviceStarts[initial.compDevs[c] + 1]++;
+        }
+        for (int dev = 0; dev < devices; dev++) {
+            deviceStarts[dev + 1] += deviceStarts[dev];
+        }
+        //Component becomes the member of its device with the index of its place in the group of the device.
+        int[] groupedPositions = new int[components];
+        int[] memberIndexes = new int[components];
+        int[] nextPlace = Arrays.copyOf(deviceStarts, devices);
+        for (int c = 0; c < components; c++) {
+            int dev = initial.compDevs[c];
+            memberIndexes[c] = nextPlace[dev] - deviceStarts[dev];
+            groupedPositions[nextPlace[dev]++] = initial.positions[c];
+        }
+        for (int dev = 0; dev < devices; dev++) {
+            DevData device = deviceInformation[dev];
+            for (int g = deviceStarts[dev]; g < deviceStarts[dev + 1]; g++) {
+                if (!device.occupyInitially(groupedPositions[g])){
+                    throw new IllegalArgumentException("Place " + groupedPositions[g] + " of device " + deviceIds[dev]
+                            + " is assigned to more than one component.");
+                }
             }
-            if (deviceTotalSlots.get(devId) <= 0 || deviceTotalSlots.get(devId) == null){
-                throw new IllegalArgumentException("Device " + devId + " has 0 available slots.");
+            device.finishInitialPlacement();
+            device.setInitialMemberCount(deviceStarts[dev + 1] - deviceStarts[dev]);
+        }
+
+        //Components are put in the map in the order of the given placement, which usually follows their hashes,
+        //so that the map is filled mostly in the order of its buckets.
+        ConcurrentHashMap<ComponentId, CompData> information = new ConcurrentHashMap<>(components);
+        ComponentTable table = new ComponentTable(components);
+        //Big placements are split into ranges placed in parallel by the common pool.
+        if (components >= PARALLEL_PLACEMENT && ForkJoinPool.getCommonPoolParallelism() > 1){
+            IntStream.range(0, (components + PLACEMENT_RANGE - 1) / PLACEMENT_RANGE).parallel().forEach(range ->
+                    placeComponents(range * PLACEMENT_RANGE, Math.min(components, (range + 1) * PLACEMENT_RANGE),
+                            initial, memberIndexes, deviceInformation, table, information));
+        }else{
+            placeComponents(0, components, initial, memberIndexes, deviceInformation, table, information);
+        }
+        table.setInitialCount(components);
+        this.componentInformation = information;
+        this.componentTable = table;
+
+        this.lockingMode = lockingMode;
+        this.systemLock = new ReentrantReadWriteLock();
+        this.visited = new int[devices];
+        this.reachedBy = new int[devices];
+        this.dfsStack = new int[devices];
+        this.cycle = new int[devices];
+        this.pathDevs = new int[devices];
+        this.pathEdges = new Waiter[devices];
+        this.searchNumber = 0;
+        this.operatedComponents = new LongAdder();
+        this.cyclesResolved = new LongAdder();
+        this.chainWakeups = new LongAdder();
+        this.rejectedTransfers = new ConcurrentHashMap<>();
+        this.statistics = statistics;
+        this.log = log;
+        if (statistics != null){
+            statistics.attach(deviceIndexes);
+        }
+    }
+
+    //Puts components from 'from' to 'to' - 1 of the initial placement on their places, component 'c' gets the index 'c'
+    //in the table of components, and becomes the member 'memberIndexes[c]' of its device.
+    private static void placeComponents(int from, int to, InitialPlacement initial, int[] memberIndexes, DevData[] deviceInformation,
+                                        ComponentTable componentTable, ConcurrentHashMap<ComponentId, CompData> componentInformation){
+        for (int c = from; c < to; c++) {
+            CompData comp = new CompData(initial.compIds[c], initial.compDevs[c], initial.positions[c]);
+            comp.setIndex(c);
+            deviceInformation[initial.compDevs[c]].setInitialMember(memberIndexes[c], comp);
+            componentTable.setInitial(c, comp);
+            if (componentInformation.put(initial.compIds[c], comp) != null){
+                throw new IllegalArgumentException("Component " + initial.compIds[c] + " is placed more than once.");
             }
-            deviceInformation.put(devId, new DevData(deviceTotalSlots.get(devId)));
-            waitingTransfers.put(devId, new LinkedList<>());
-            waitingTransfersSemaphores.put(devId, new LinkedList<>());
         }
+    }
 
-        this.componentInformation = new HashMap<>();
-        for (ComponentId compId : componentPlacement.keySet()) {
-            if (compId == null){
-                throw new IllegalArgumentException("ComponentId cannot be null");
+    //Current placement of components, which can only be taken while no transfer is in progress.
+    //System lock stops transfers from being queued or woken up, but transfers that reserve a free slot at once do not take it,
+    //and are counted in 'operatedComponents' only after they have claimed their component. So besides the counter,
+    //the state of every component is checked, and a component that is claimed fails the placement, as it is being moved.
+    InitialPlacement currentPlacement(){
+        systemLock.writeLock().lock();
+        try {
+            if (operatedComponents.sum() != 0){
+                throw new IllegalStateException("Placement can be taken only while no transfer is in progress.");
             }
-            DeviceId devId = componentPlacement.get(compId);
-            if (devId == null){
-                throw new IllegalArgumentException("Component " + compId + " is assigned to a device with null DeviceId");
+            int[] capacities = new int[deviceInformation.length];
+            for (int dev = 0; dev < deviceInformation.length; dev++) {
+                capacities[dev] = deviceInformation[dev].getSize();
             }
-            if (!deviceInformation.containsKey(devId)){
-                throw new IllegalArgumentException("Component " + compId + "is assigned to a device " + devId + "that does not exist in the system.");
+            int components = componentInformation.size();
+            ComponentId[] compIds = new ComponentId[components];
+            int[] compDevs = new int[components];
+            int[] positions = new int[components];
+            int c = 0;
+            for (CompData comp : componentInformation.values()) {
+                if (c == components){
+                    throw new IllegalStateException("Placement can be taken only while no transfer is in progress.");
+                }
+                long state = comp.getState();
+                if (CompData.isOperatedOn(state)){
+                    throw new IllegalStateException("Placement can be taken only while no transfer is in progress.");
+                }
+                compIds[c] = comp.getCompId();
+                compDevs[c] = CompData.deviceOf(state);
+                positions[c] = CompData.positionOf(state);
+                c++;
             }
-            int pos = deviceInformation.get(devId).reserveSlot();
-            if (pos == -1){
-                throw new IllegalArgumentException("Device " + devId + " has initially too much components assigned to it.");
+            if (c != components || operatedComponents.sum() != 0){
+                throw new IllegalStateException("Placement can be taken only while no transfer is in progress.");
             }
-            deviceInformation.get(devId).acquireSlot(pos);
-            deviceInformation.get(devId).initFreeSpaces();
-            componentInformation.put(compId, new CompData(devId, pos));
+            return new InitialPlacement(deviceIds.clone(), capacities, compIds, compDevs, positions);
+        } finally {
+            systemLock.writeLock().unlock();
         }
-
-        this.mutex = new Semaphore(1);
     }
 
     @Override
     public void execute(ComponentTransfer transfer) throws TransferException {
+        //We have to check if transfer is correct, and mark its component as operated on.
+        CompData comp = submit(transfer);
+        //Then we try to execute it.
+        reserveDevices(transfer, comp);
+    }
+
+    //Asynchronous transfers are continued by the common pool, unless another executor is given.
+    @Override
+    public CompletableFuture<Void> executeAsync(ComponentTransfer transfer) {
+        return executeAsync(transfer, ForkJoinPool.commonPool());
+    }
+
+    //Asynchronous transfer goes through the same steps as in 'execute', but whenever it would wait, it leaves a continuation instead.
+    //Its 'prepare' is always run by the executor, so that the submitting thread does not wait for it.
+    //Transfer that gets its place at once gives its 'prepare' to the executor before the slot it leaves becomes free,
+    //so that if the executor rejects it, the transfer can still be undone, see 'startOrUndo'.
+    //Transfer that has waited cannot be undone, as other transfers may already depend on its place, so the executor
+    //has to accept the continuations of transfers that were queued.
+    @Override
+    public CompletableFuture<Void> executeAsync(ComponentTransfer transfer, Executor executor) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompData comp;
         try {
-            mutex.acquire();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("panic: unexpected thread interruption", e);
+            comp = submit(transfer);
+        } catch (TransferException e) {
+            done.completeExceptionally(e);
+            return done;
         }
-        //We have to check if transfer is correct.
-        checkIfCorrect(transfer);
-        //Then we try to execute it.
-        reserveDevices(transfer);
-    }
-
-    //Checking all possible wrong transfer conditions.
-    public void checkIfCorrect(ComponentTransfer transfer) throws TransferException {
-        if ((transfer.getSourceDeviceId() == null && transfer.getDestinationDeviceId() == null)) {
-            throw new IllegalTransferType(transfer.getComponentId());
-        }else if (transfer.getSourceDeviceId() != null && !deviceInformation.containsKey(transfer.getSourceDeviceId())){
-            throw new DeviceDoesNotExist(transfer.getSourceDeviceId());
-        }else if (transfer.getDestinationDeviceId() != null && !deviceInformation.containsKey(transfer.getDestinationDeviceId())){
-            throw new DeviceDoesNotExist(transfer.getDestinationDeviceId());
-        }else if (transfer.getSourceDeviceId() == null && componentInformation.containsKey(transfer.getComponentId())){
-            throw new ComponentAlreadyExists(transfer.getComponentId(), transfer.getDestinationDeviceId());
-        }else if (transfer.getSourceDeviceId() != null && (!componentInformation.containsKey(transfer.getComponentId()) || !componentInformation.get(transfer.getComponentId()).getSrcDevId().equals(transfer.getSourceDeviceId()))){
-            throw new ComponentDoesNotExist(transfer.getComponentId(), transfer.getSourceDeviceId());
-        }else if (componentInformation.containsKey(transfer.getComponentId()) && (transfer.getDestinationDeviceId() != null) && (transfer.getDestinationDeviceId().equals(componentInformation.get(transfer.getComponentId()).getSrcDevId()))){
-            throw new ComponentDoesNotNeedTransfer(transfer.getComponentId(), transfer.getDestinationDeviceId());
-        }else if (componentInformation.containsKey(transfer.getComponentId()) && componentInformation.get(transfer.getComponentId()).isOperatedOn()){
-            throw new ComponentIsBeingOperatedOn(transfer.getComponentId());
-        }
-    }
-
-
-    public void reserveDevices(ComponentTransfer transfer) {
-        DeviceId destDevId = transfer.getDestinationDeviceId();
-        DeviceId srcDevId = transfer.getSourceDeviceId();
-        //If transfer is correct, and it's component is not in the componentInformation map, than it is an 'adding' transfer.
-        //We put it there only once, if other transfer tries to add the same component, it will not be correct.
-        if (!componentInformation.containsKey(transfer.getComponentId())){
-            componentInformation.put(transfer.getComponentId(), new CompData(transfer.getDestinationDeviceId(), -1));
-        }
-        componentInformation.get(transfer.getComponentId()).operateOn();
-        if (destDevId == null) {
-            //Procedure for 'deleting' transfers.
-            reserveForDeleting(transfer, srcDevId);
-        } else {
-            int pos = deviceInformation.get(destDevId).reserveSlot();
+        Runnable prepare = () -> prepareAndPerformAsync(transfer, comp, executor, done);
+        if (comp.getDestDev() != NO_DEVICE) {
+            int pos = deviceInformation[comp.getDestDev()].tryReserveSlot();
             if (pos == -1) {
-                //If transfers cannot be executed immediately (there is no space on the source device), we check if it is a part of a cycle.
-                checkForCycleOrWait(transfer, destDevId);
-            } else {
-                //If we can execute the transfer, we try to awake other possible transfers.
-                LinkedList<ComponentTransfer> awakenTransfers = awakeTransfers(pos, transfer);
-                ComponentTransfer firstTransfer = awakenTransfers.peekFirst();
-                releaseFromQueue(awakenTransfers);
-                mutex.release();
-                prepareAndPerform(firstTransfer, destDevId); //First transfer is never null, because awakenTransfers always contains current transfer.
-            }
-        }
-    }
-
-    //Searching for a cycle, if it does not exist, transfer has to wait on a Semaphore.
-    public void checkForCycleOrWait(ComponentTransfer transfer, DeviceId destDevId){
-        LinkedList<ComponentTransfer> awakenTransfers = checkForCycle(transfer);
-        if (!awakenTransfers.isEmpty()) {
-            awakenTransfers = awakeTransfersInCycle(awakenTransfers);
-            ComponentTransfer firstTransfer = awakenTransfers.peekFirst();
-            ComponentTransfer lastTransfer = awakenTransfers.peekLast();
-            releaseFromQueueForCycle(awakenTransfers);
-            while (!awakenTransfers.isEmpty()) {
-                transfer = awakenTransfers.removeFirst();
-                if (!awakenTransfers.isEmpty()) {
-                    ComponentTransfer peekNext = awakenTransfers.peekFirst();
-                    int nextPosition = waitingTransfers.get(transfer.getSourceDeviceId()).indexOf(peekNext);
-                    waitingTransfers.get(transfer.getSourceDeviceId()).remove(nextPosition);
-                    waitingTransfersSemaphores.get(transfer.getSourceDeviceId()).remove(nextPosition).release();
+                queueOrResolveCycle(new Waiter(comp, executor, afterQueue(comp, prepare), done));
+                return done;
+            }
+            comp.setDestDevPos(pos);
+        }
+        try {
+            logIntentOrGiveUp(comp);
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+            return done;
+        }
+        //Source has to be read before the transfer is started, as it changes when the transfer ends.
+        int srcDev = comp.getLeftDev();
+        int srcPos = comp.getSrcDevPos();
+        if (startOrUndo(comp, executor, prepare, done) && srcDev != NO_DEVICE){
+            awakeTransfers(srcDev, srcPos);
+        }
+        return done;
+    }
+
+    //Gives the 'prepare' of a transfer that has got its place to the executor, returns false if the executor rejects it.
+    //The slot the transfer leaves is not free yet, so a rejected transfer is undone: the log gets an intent that puts
+    //the component back where it was, the place of the transfer is given back, and the component is given up.
+    //Future of the transfer is completed with the rejection.
+    private boolean startOrUndo(CompData comp, Executor executor, Runnable prepare, CompletableFuture<Void> done){
+        try {
+            executor.execute(prepare);
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (log != null){
+                try {
+                    log.appendRevert(comp);
+                } catch (RuntimeException logFailure) {
+                    e.addSuppressed(logFailure);
                 }
             }
-            mutex.release();
-            prepareAndPerformForCycles(lastTransfer, firstTransfer); //First transfer is never null, because awakenTransfers always contains current transfer.
-        } else {
-            addToQueueAndWait(transfer);
-            prepareAndPerform(transfer, destDevId);
+            if (comp.getDestDev() != NO_DEVICE){
+                awakeTransfers(comp.getDestDev(), comp.getDestDevPos());
+            }
+            abandonTransfer(comp);
+            done.completeExceptionally(e);
+            return false;
         }
     }
 
-    //If transfer is deleting a component, it can be executed immediately, and then it can also wake up some transfers.
-    public void reserveForDeleting(ComponentTransfer transfer, DeviceId srcDevId){
-        int pos = componentInformation.get(transfer.getComponentId()).getSrcDevPos();
-        ComponentTransfer nextTransfer = waitingTransfers.get(srcDevId).poll();
-        deviceInformation.get(transfer.getSourceDeviceId()).increaseFreeSpaces(pos);
-        if (nextTransfer != null){
-            LinkedList<ComponentTransfer> awakenTransfers = awakeTransfers(pos, nextTransfer);
-            //Since waitingTransferSemaphores has the same amount of elements as waitingTransfers, release won't produce exception.
-            waitingTransfersSemaphores.get(transfer.getSourceDeviceId()).poll().release();
-            releaseFromQueue(awakenTransfers);
-        }
-        mutex.release();
-        prepareAndPerformForDeleting(transfer);
-    }
-
-    //Transfers that cannot be executed immediately, are added to queue, and are waiting on Semaphores.
-    //If a transfer that just came makes them possible, they are moved to LinkedList 'awakenTransfers',
-    // and after their information is properly set, they can be released from the 'waitingTransfers' queue and continue.
-    public void releaseFromQueue(LinkedList<ComponentTransfer> awakenTransfers){
+    @Override
+    public List<CompletableFuture<Void>> executeAll(Collection<? extends ComponentTransfer> transfers) {
+        return executeAll(transfers, ForkJoinPool.commonPool());
+    }
+
+    //Batch of asynchronous transfers. Every transfer is checked and marks its component on its own, as in 'executeAsync',
+    //then the whole batch is placed while holding the system lock for writing only once.
+    //All moving and adding transfers are queued, deleting ones free their slots, and the queues they touched are served
+    //in the usual order, passing freed slots on along chains of waiting transfers, as long as possible.
+    //Every cycle in the graph goes through some transfer of the batch, as cycles are resolved whenever a transfer is queued,
+    //so one search, started from destinations of transfers of the batch that still wait, resolves all of them.
+    //Transfers are released after the lock is unlocked, and their executor runs their 'prepare' and 'perform'.
+    //Transfer whose intent is not taken by the placement log fails, and its future is completed exceptionally.
+    @Override
+    public List<CompletableFuture<Void>> executeAll(Collection<? extends ComponentTransfer> transfers, Executor executor) {
+        List<CompletableFuture<Void>> results = new ArrayList<>(transfers.size());
+        ArrayList<Waiter> queued = new ArrayList<>(transfers.size());
+        ArrayList<Waiter> deleting = new ArrayList<>();
+        for (ComponentTransfer transfer : transfers) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            results.add(done);
+            try {
+                CompData comp = submit(transfer);
+                Runnable prepare = () -> prepareAndPerformAsync(transfer, comp, executor, done);
+                //Deleting transfers are never queued, their Waiters only run their 'prepare', or fail them.
+                if (comp.getDestDev() == NO_DEVICE) {
+                    Waiter waiter = new Waiter(comp, executor, prepare, done);
+                    queued.add(waiter);
+                    deleting.add(waiter);
+                } else {
+                    queued.add(new Waiter(comp, executor, afterQueue(comp, prepare), done));
+                }
+            } catch (TransferException e) {
+                done.completeExceptionally(e);
+            }
+        }
+
+        LinkedList<Integer> devices = new LinkedList<>();
+        WaiterQueue awakenTransfers = new WaiterQueue();
+        systemLock.writeLock().lock();
+        try {
+            for (Waiter waiter : queued) {
+                CompData comp = waiter.getComp();
+                if (comp.getDestDev() == NO_DEVICE) {
+                    try {
+                        logIntent(comp);
+                    } catch (RuntimeException e) {
+                        abandonTransfer(comp);
+                        waiter.fail(e);
+                        continue;
+                    }
+                    deviceInformation[comp.getSrcDev()].increaseFreeSpaces(comp.getSrcDevPos());
+                    devices.add(comp.getSrcDev());
+                } else {
+                    addToQueue(waiter);
+                    devices.add(comp.getDestDev());
+                }
+            }
+            takeChains(devices, awakenTransfers);
+            resolveCycles(queued, awakenTransfers);
+        } finally {
+            systemLock.writeLock().unlock();
+        }
         while (!awakenTransfers.isEmpty()) {
-            ComponentTransfer transfer = awakenTransfers.poll();
-            if (!awakenTransfers.isEmpty()) {
-                //Since waitingTransferSemaphores has the same amount of elements as waitingTransfers, release won't produce exception.
-                waitingTransfersSemaphores.get(transfer.getSourceDeviceId()).poll().release();
+            awakenTransfers.poll().release();
+        }
+        for (Waiter waiter : deleting) {
+            waiter.release();
+        }
+        return results;
+    }
+
+    //Locks the queue of waiting transfers of a device.
+    public void lockDevice(DevData device){
+        long startTime = phaseStart();
+        if (lockingMode == LockingMode.GLOBAL){
+            systemLock.writeLock().lock();
+        }else{
+            systemLock.readLock().lock();
+            device.lock();
+        }
+        phaseEnd(device.getIndex(), TransferPhase.LOCK_ACQUIRE, startTime);
+    }
+
+    public void unlockDevice(DevData device){
+        if (lockingMode == LockingMode.GLOBAL){
+            systemLock.writeLock().unlock();
+        }else{
+            device.unlock();
+            systemLock.readLock().unlock();
+        }
+    }
+
+    //Locks what queueing the transfer of 'comp' reads and changes. In STRIPED mode, these are the queue of its destination,
+    //and the counters of waiting and leaving transfers of its destination and source, which 'mayCloseCycle' reads.
+    //Devices are locked in the order of their indexes, so that transfers locking the same devices cannot deadlock.
+    private void lockForQueueing(CompData comp){
+        if (lockingMode == LockingMode.GLOBAL){
+            systemLock.writeLock().lock();
+            return;
+        }
+        systemLock.readLock().lock();
+        int destDev = comp.getDestDev();
+        int srcDev = comp.getLeftDev();
+        if (srcDev == NO_DEVICE){
+            deviceInformation[destDev].lock();
+        }else{
+            deviceInformation[Math.min(srcDev, destDev)].lock();
+            deviceInformation[Math.max(srcDev, destDev)].lock();
+        }
+    }
+
+    private void unlockForQueueing(CompData comp){
+        if (lockingMode == LockingMode.GLOBAL){
+            systemLock.writeLock().unlock();
+            return;
+        }
+        int srcDev = comp.getLeftDev();
+        if (srcDev != NO_DEVICE){
+            deviceInformation[srcDev].unlock();
+        }
+        deviceInformation[comp.getDestDev()].unlock();
+        systemLock.readLock().unlock();
+    }
+
+    //Checks if transfer is correct, and marks its component as operated on, as 'operateOn' does,
+    //recording how long it took, or counting the rejected transfer.
+    private CompData submit(ComponentTransfer transfer) throws TransferException {
+        long startTime = phaseStart();
+        TransferEvents.Submitted event = new TransferEvents.Submitted();
+        event.begin();
+        CompData comp;
+        try {
+            comp = operateOn(transfer);
+        } catch (TransferException e) {
+            rejectedTransfers.computeIfAbsent(e.getClass().getSimpleName(), name -> new LongAdder()).increment();
+            throw e;
+        }
+        operatedComponents.increment();
+        phaseEnd(comp, TransferPhase.VALIDATION, startTime);
+        commitEvent(event, comp);
+        return comp;
+    }
+
+    //Start of a phase of a transfer. Clock is read only if the system records statistics.
+    private long phaseStart(){
+        return statistics == null ? 0 : System.nanoTime();
+    }
+
+    //Records a phase of the transfer of 'comp' that started at 'startTime', for its destination device,
+    //or for its source device if it deletes the component.
+    private void phaseEnd(CompData comp, TransferPhase phase, long startTime){
+        if (statistics != null){
+            phaseEnd(phaseDevice(comp), phase, startTime);
+        }
+    }
+
+    private static int phaseDevice(CompData comp){
+        return comp.getDestDev() != NO_DEVICE ? comp.getDestDev() : comp.getSrcDev();
+    }
+
+    private void phaseEnd(int dev, TransferPhase phase, long startTime){
+        if (statistics != null){
+            statistics.record(dev, phase, System.nanoTime() - startTime);
+        }
+    }
+
+    //Fills in ids of the transfer of 'comp', and commits the event, if Flight Recorder records it.
+    //It has to be called before the transfer ends, as the devices of the component change then.
+    private void commitEvent(TransferEvents.TransferEvent event, CompData comp){
+        if (event.shouldCommit()){
+            event.component = comp.getCompId().toString();
+            event.source = deviceName(comp.getLeftDev());
+            event.destination = deviceName(comp.getDestDev());
+            event.commit();
+        }
+    }
+
+    private String deviceName(int dev){
+        return dev < 0 ? null : deviceIds[dev].toString();
+    }
+
+    //Appends the intent of the transfer of 'comp' to the log, if the system has one.
+    //It has to be called when the transfer gets its place, before the slot it leaves becomes free.
+    private void logIntent(CompData comp){
+        if (log != null){
+            comp.setLogPosition(log.appendIntent(comp));
+        }
+    }
+
+    //Appends the intent of a transfer that has got its place without the system lock.
+    //If the log does not take it, the place is given back, and the component is given up, so that the transfer fails
+    //with the exception of the log, as if it had never started.
+    private void logIntentOrGiveUp(CompData comp){
+        try {
+            logIntent(comp);
+        } catch (RuntimeException e) {
+            if (comp.getDestDev() != NO_DEVICE){
+                awakeTransfers(comp.getDestDev(), comp.getDestDevPos());
             }
+            abandonTransfer(comp);
+            throw e;
         }
     }
 
-    //Same function as above, but transfers in cycles are not necessarily the longest waiting transfers ont their destination devices.
-    //Because of that, we have to find their position in 'waitingTransfersQueue', and remove them, as well as their Semaphores.
-    public void releaseFromQueueForCycle(LinkedList<ComponentTransfer> awakenTransfers){
-        while (!awakenTransfers.isEmpty()) {
-            ComponentTransfer transfer = awakenTransfers.removeFirst();
-            if (!awakenTransfers.isEmpty()) {
-                ComponentTransfer peekNext = awakenTransfers.peekFirst();
-                int nextPosition = waitingTransfers.get(transfer.getSourceDeviceId()).indexOf(peekNext);
-                waitingTransfers.get(transfer.getSourceDeviceId()).remove(nextPosition);
-                waitingTransfersSemaphores.get(transfer.getSourceDeviceId()).remove(nextPosition).release();
+    //Waits until the intent of a transfer is durable, before the transfer publishes its change of placement.
+    //If the log cannot be written, the transfer fails without publishing it, see PlacementLog.
+    private void awaitLog(CompData comp){
+        if (log != null){
+            long startTime = phaseStart();
+            log.awaitDurable(comp.getLogPosition());
+            phaseEnd(comp, TransferPhase.LOG_SYNC, startTime);
+        }
+    }
+
+    //Continuation of a queued asynchronous transfer, which records how long it waited in the queue.
+    private Runnable afterQueue(CompData comp, Runnable prepare){
+        if (statistics == null){
+            return prepare;
+        }
+        return () -> {
+            phaseEnd(comp, TransferPhase.QUEUE_WAIT, comp.getQueuedTime());
+            prepare.run();
+        };
+    }
+
+    //Index of a device, NO_DEVICE if devId is null, or UNKNOWN_DEVICE if the device does not exist in the system.
+    public int deviceIndex(DeviceId devId){
+        if (devId == null){
+            return NO_DEVICE;
+        }
+        Integer index = deviceIndexes.get(devId);
+        return index == null ? UNKNOWN_DEVICE : index;
+    }
+
+    //Checks if transfer is correct, and if it is, marks its component as operated on, with the destination of the transfer.
+    //Both happen atomically for the component, even if other transfers of it are checked at the same time.
+    //Returns information about the component, which is used by the rest of the transfer instead of its ids.
+    //No lock is taken: transfers that are wrong whatever the state of the component are rejected before it is looked up,
+    //and the rest are checked against one read of the state of the component, which is then claimed by a CAS.
+    //If the state has changed in the meantime, the transfer is checked again.
+    public CompData operateOn(ComponentTransfer transfer) throws TransferException {
+        ComponentId compId = transfer.getComponentId();
+        int srcDev = deviceIndex(transfer.getSourceDeviceId());
+        int destDev = deviceIndex(transfer.getDestinationDeviceId());
+        int problem = typeProblem(srcDev, destDev);
+        if (problem != CORRECT){
+            throw rejection(problem, transfer);
+        }
+        while (true) {
+            CompData comp = componentInformation.get(compId);
+            if (comp == null){
+                checkIfCorrect(transfer, srcDev, destDev, null);
+                //If transfer is correct, and it's component is not in the componentInformation map, than it is an 'adding' transfer.
+                //We put it there only once, if other transfer tries to add the same component, it will not be correct.
+                CompData addedComp = new CompData(compId, destDev, -1);
+                addedComp.operateOn();
+                addedComp.setDestDev(destDev);
+                if (componentInformation.putIfAbsent(compId, addedComp) == null){
+                    addedComp.setIndex(componentTable.add(addedComp));
+                    return addedComp;
+                }
+            }else{
+                //Component is claimed with a CAS of its state, and the claim fails if its state has changed since it was checked.
+                long state = comp.getState();
+                if (CompData.isRemoved(state)){
+                    //Component that has just been deleted has to be looked up again, once it is taken out of the map.
+                    Thread.onSpinWait();
+                    continue;
+                }
+                problem = componentProblem(srcDev, destDev, state);
+                if (problem != CORRECT){
+                    throw rejection(problem, transfer);
+                }
+                if (comp.operateOn(state)){
+                    comp.setDestDev(destDev);
+                    return comp;
+                }
             }
         }
     }
 
+    //Checking all possible wrong transfer conditions, srcDev and destDev are indexes of devices of the transfer,
+    //comp is the current information about the component, or null if it does not exist.
+    public void checkIfCorrect(ComponentTransfer transfer, int srcDev, int destDev, CompData comp) throws TransferException {
+        int problem = typeProblem(srcDev, destDev);
+        if (problem == CORRECT){
+            problem = componentProblem(srcDev, destDev, comp);
+        }
+        if (problem != CORRECT){
+            throw rejection(problem, transfer);
+        }
+    }
+
+    //Problems of transfers that do not depend on their component.
+    private static int typeProblem(int srcDev, int destDev){
+        if (srcDev == NO_DEVICE && destDev == NO_DEVICE) {
+            return ILLEGAL_TYPE;
+        }else if (srcDev == UNKNOWN_DEVICE){
+            return UNKNOWN_SOURCE;
+        }else if (destDev == UNKNOWN_DEVICE){
+            return UNKNOWN_DESTINATION;
+        }
+        return CORRECT;
+    }
+
+    //Problems that depend on the component, comp is null if it does not exist.
+    private static int componentProblem(int srcDev, int destDev, CompData comp){
+        if (comp == null){
+            return srcDev != NO_DEVICE ? DOES_NOT_EXIST : CORRECT;
+        }
+        return componentProblem(srcDev, destDev, comp.getState());
+    }
+
+    //Problems of a transfer of an existing component, whose state is 'state'.
+    private static int componentProblem(int srcDev, int destDev, long state){
+        if (srcDev == NO_DEVICE){
+            return ALREADY_EXISTS;
+        }else if (CompData.deviceOf(state) != srcDev){
+            return DOES_NOT_EXIST;
+        }else if (destDev == srcDev){
+            return DOES_NOT_NEED_TRANSFER;
+        }else if (CompData.isOperatedOn(state)){
+            return BEING_OPERATED_ON;
+        }
+        return CORRECT;
+    }
+
+    private static TransferException rejection(int problem, ComponentTransfer transfer){
+        switch (problem) {
+            case ILLEGAL_TYPE:
+                return new IllegalTransferType(transfer.getComponentId());
+            case UNKNOWN_SOURCE:
+                return new DeviceDoesNotExist(transfer.getSourceDeviceId());
+            case UNKNOWN_DESTINATION:
+                return new DeviceDoesNotExist(transfer.getDestinationDeviceId());
+            case ALREADY_EXISTS:
+                return new ComponentAlreadyExists(transfer.getComponentId(), transfer.getDestinationDeviceId());
+            case DOES_NOT_EXIST:
+                return new ComponentDoesNotExist(transfer.getComponentId(), transfer.getSourceDeviceId());
+            case DOES_NOT_NEED_TRANSFER:
+                return new ComponentDoesNotNeedTransfer(transfer.getComponentId(), transfer.getDestinationDeviceId());
+            default:
+                return new ComponentIsBeingOperatedOn(transfer.getComponentId());
+        }
+    }
+
+
+    public void reserveDevices(ComponentTransfer transfer, CompData comp) {
+        if (comp.getDestDev() == NO_DEVICE) {
+            //Procedure for 'deleting' transfers.
+            reserveForDeleting(transfer, comp);
+            return;
+        }
+        int pos = deviceInformation[comp.getDestDev()].tryReserveSlot();
+        if (pos == -1) {
+            //If transfers cannot be executed immediately (there is no space on the destination device), we check if it is a part of a cycle.
+            checkForCycleOrWait(transfer, comp);
+        } else {
+            //If we can execute the transfer, we try to awake other possible transfers.
+            comp.setDestDevPos(pos);
+            logIntentOrGiveUp(comp);
+            if (!comp.isBeingAdded()){
+                awakeTransfers(comp.getSrcDev(), comp.getSrcDevPos());
+            }
+            prepareAndPerform(transfer, comp);
+        }
+    }
+
+    //Transfer is queued, and then it tries to take a free slot once more, as one could have been freed
+    //after it failed to reserve it. If there is still no free slot, we search for a cycle.
+    //If it does not exist either, transfer has to wait on its Waiter, till other transfer will wake it up.
+    public void checkForCycleOrWait(ComponentTransfer transfer, CompData comp){
+        Waiter waiter = new Waiter(comp);
+        queueOrResolveCycle(waiter);
+        //We are waiting in a queue assigned to a specific device, till other transfer will wake us up.
+        //If the transfer has already been woken up, while it was holding the lock, it continues immediately.
+        //If it could not be placed, as the placement log has not taken its intent, it fails with the exception of the log.
+        waiter.await();
+        phaseEnd(comp, TransferPhase.QUEUE_WAIT, comp.getQueuedTime());
+        //If transfer is a part of a cycle, it takes the slot of the last transfer in the cycle, so, like any other transfer,
+        //it waits for this slot until the last transfer ends its 'prepare'.
+        prepareAndPerform(transfer, comp);
+    }
+
+    //Queues the transfer of the Waiter, and releases every transfer that became possible, which may include this one.
+    //In STRIPED mode, a transfer that may close a cycle unlocks its devices, and locks the whole system to search for it.
+    //Meanwhile it can be woken up, or become a part of a cycle closed by another transfer, then there is nothing to search for.
+    public void queueOrResolveCycle(Waiter waiter){
+        CompData comp = waiter.getComp();
+        int destDev = comp.getDestDev();
+        WaiterQueue awakenTransfers = new WaiterQueue();
+        WaiterQueue cycleTransfers = new WaiterQueue();
+        boolean cyclePossible;
+        long startTime = phaseStart();
+        lockForQueueing(comp);
+        try {
+            phaseEnd(destDev, TransferPhase.LOCK_ACQUIRE, startTime);
+            addToQueue(waiter);
+            takeWaitingTransfers(destDev, awakenTransfers);
+            cyclePossible = !waiter.isIn(awakenTransfers) && mayCloseCycle(comp);
+            if (cyclePossible && lockingMode == LockingMode.GLOBAL){
+                resolveCycle(comp, cycleTransfers);
+                cyclePossible = false;
+            }
+        } finally {
+            unlockForQueueing(comp);
+        }
+        if (cyclePossible){
+            startTime = phaseStart();
+            systemLock.writeLock().lock();
+            try {
+                phaseEnd(destDev, TransferPhase.LOCK_ACQUIRE, startTime);
+                if (waiter.isIn(waitingTransfers[destDev])){
+                    resolveCycle(comp, cycleTransfers);
+                }
+            } finally {
+                systemLock.writeLock().unlock();
+            }
+        }
+        //Transfers in a cycle do not free any slot, they are only released.
+        while (!cycleTransfers.isEmpty()) {
+            cycleTransfers.poll().release();
+        }
+        for (int dev : releaseFromQueue(awakenTransfers)) {
+            awakeWaitingTransfers(dev);
+        }
+    }
+
+    //If transfer is deleting a component, it can be executed immediately, and then it can also wake up some transfers.
+    public void reserveForDeleting(ComponentTransfer transfer, CompData comp){
+        logIntentOrGiveUp(comp);
+        awakeTransfers(comp.getSrcDev(), comp.getSrcDevPos());
+        prepareAndPerformForDeleting(transfer, comp);
+    }
+
     //Prepare and perform for transfers that add, or move component.
-    public void prepareAndPerform(ComponentTransfer transfer, DeviceId destDevId){
+    public void prepareAndPerform(ComponentTransfer transfer, CompData comp){
+        long startTime = phaseStart();
+        TransferEvents.Prepare prepareEvent = new TransferEvents.Prepare();
+        prepareEvent.begin();
         transfer.prepare();
-        componentInformation.get(transfer.getComponentId()).isPrepared();   //After preparing, we mark the component as prepared.
+        phaseEnd(comp, TransferPhase.PREPARE, startTime);
+        commitEvent(prepareEvent, comp);
         //If component was moved from another device, we release the slot on previous device, as it is no longer occupied.
-        if (transfer.getSourceDeviceId() != null){
-            deviceInformation.get(transfer.getSourceDeviceId()).releaseSlot(componentInformation.get(transfer.getComponentId()).getSrcDevPos());
+        if (!comp.isBeingAdded()){
+            deviceInformation[comp.getSrcDev()].releaseSlot(comp.getSrcDevPos());
         }
         //Then, component has to wait for his future slot to be available.
         //It will happen, when the 'previous' transfer will end his 'prepare'.
-        deviceInformation.get(destDevId).acquireSlot(componentInformation.get(transfer.getComponentId()).getDestDevPos());
+        startTime = phaseStart();
+        TransferEvents.SlotHandoff handoffEvent = new TransferEvents.SlotHandoff();
+        handoffEvent.begin();
+        deviceInformation[comp.getDestDev()].acquireSlot(comp.getDestDevPos());
+        phaseEnd(comp, TransferPhase.HANDOFF_WAIT, startTime);
+        commitEvent(handoffEvent, comp);
+        startTime = phaseStart();
+        TransferEvents.Perform performEvent = new TransferEvents.Perform();
+        performEvent.begin();
         transfer.perform();
-        //At last, we have to update information about transferred component.
-        endTransfer(transfer);
-    }
-
-    //This function is similar to prepareAndPerform, but has 1 significant difference.
-    //Before perform of the first transfer in the cycle, we have to wait for the 'last' transfer to end his 'prepare'.
-    //We do not have to acquire the slot later, because prepare of the previous transfer has already ended.
-    public void prepareAndPerformForCycles(ComponentTransfer lastTransfer, ComponentTransfer firstTransfer){
-        firstTransfer.prepare();
-        componentInformation.get(firstTransfer.getComponentId()).isPrepared();
-        componentInformation.get(lastTransfer.getComponentId()).waitForPrepare();
-        if (firstTransfer.getSourceDeviceId() != null){
-            deviceInformation.get(firstTransfer.getSourceDeviceId()).releaseSlot(componentInformation.get(firstTransfer.getComponentId()).getSrcDevPos());
-        }
-        firstTransfer.perform();
-        endTransfer(firstTransfer);
+        phaseEnd(comp, TransferPhase.PERFORM, startTime);
+        commitEvent(performEvent, comp);
+        //At last, once the change is durable, we have to update information about transferred component.
+        awaitLog(comp);
+        endTransfer(comp);
     }
 
     //Once more, this function is similar to prepareAndPerform, but with 1 difference.
     //Since deleting a component (if called with correct parameters) is always possible immediately,
     //we do not have to acquireSlot.
-    public void prepareAndPerformForDeleting(ComponentTransfer transfer){
+    public void prepareAndPerformForDeleting(ComponentTransfer transfer, CompData comp){
+        long startTime = phaseStart();
+        TransferEvents.Prepare prepareEvent = new TransferEvents.Prepare();
+        prepareEvent.begin();
         transfer.prepare();
-        componentInformation.get(transfer.getComponentId()).isPrepared();
-        if (transfer.getSourceDeviceId() != null){
-            deviceInformation.get(transfer.getSourceDeviceId()).releaseSlot(componentInformation.get(transfer.getComponentId()).getSrcDevPos());
-        }
+        phaseEnd(comp, TransferPhase.PREPARE, startTime);
+        commitEvent(prepareEvent, comp);
+        deviceInformation[comp.getSrcDev()].releaseSlot(comp.getSrcDevPos());
+        startTime = phaseStart();
+        TransferEvents.Perform performEvent = new TransferEvents.Perform();
+        performEvent.begin();
         transfer.perform();
-        endTransfer(transfer);
+        phaseEnd(comp, TransferPhase.PERFORM, startTime);
+        commitEvent(performEvent, comp);
+        awaitLog(comp);
+        endTransfer(comp);
     }
 
-    //This function puts transfer in a queue 'waitingTransfers', and Semaphore for this transfer in similar queue.
-    //Position of a specific transfer, and it's Semaphore is always the same in both queues.
-    //If transfer is first in his queue, it's Semaphore is also first.
-    public void addToQueueAndWait(ComponentTransfer transfer){
-        DeviceId destDevId = transfer.getDestinationDeviceId();
-        waitingTransfers.get(destDevId).add(transfer);
-        Semaphore wait = new Semaphore(0);
-        waitingTransfersSemaphores.get(destDevId).add(wait);
-        //We are waiting in a queue assigned to a specific device, till other transfer will wake us up.
-        mutex.release();
+    //Prepare and perform of an asynchronous transfer of any kind, run by its executor.
+    //If the future slot is not available yet, 'perform' is run by the executor when the 'previous' transfer ends its 'prepare'.
+    //Exception thrown by the transfer completes its future, as there is no thread that would get it.
+    public void prepareAndPerformAsync(ComponentTransfer transfer, CompData comp, Executor executor, CompletableFuture<Void> done){
+        try {
+            long startTime = phaseStart();
+            TransferEvents.Prepare prepareEvent = new TransferEvents.Prepare();
+            prepareEvent.begin();
+            transfer.prepare();
+            phaseEnd(comp, TransferPhase.PREPARE, startTime);
+            commitEvent(prepareEvent, comp);
+            if (!comp.isBeingAdded()){
+                deviceInformation[comp.getSrcDev()].releaseSlot(comp.getSrcDevPos());
+            }
+            if (comp.getDestDev() == NO_DEVICE){
+                performAsync(transfer, comp, executor, done);
+                return;
+            }
+            //Event is kept by the continuation, so it exists only while Flight Recorder records it.
+            long handoffTime = phaseStart();
+            TransferEvents.SlotHandoff handoffEvent = TransferEvents.asyncSlotHandoff();
+            Runnable perform = () -> {
+                phaseEnd(comp, TransferPhase.HANDOFF_WAIT, handoffTime);
+                if (handoffEvent != null){
+                    commitEvent(handoffEvent, comp);
+                }
+                performAsync(transfer, comp, executor, done);
+            };
+            if (deviceInformation[comp.getDestDev()].acquireSlot(comp.getDestDevPos(), executor, perform)){
+                perform.run();
+            }
+        } catch (Throwable e) {
+            done.completeExceptionally(e);
+        }
+    }
+
+    //If the system has a log, the transfer ends, and its future is completed, by the executor once its change of placement is durable.
+    public void performAsync(ComponentTransfer transfer, CompData comp, Executor executor, CompletableFuture<Void> done){
         try {
-            wait.acquire();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("panic: unexpected thread interruption", e);
+            long startTime = phaseStart();
+            TransferEvents.Perform performEvent = new TransferEvents.Perform();
+            performEvent.begin();
+            transfer.perform();
+            phaseEnd(comp, TransferPhase.PERFORM, startTime);
+            commitEvent(performEvent, comp);
+            if (log == null){
+                endTransfer(comp);
+                done.complete(null);
+            }else{
+                log.runWhenDurable(comp.getLogPosition(), executor, () -> {
+                    endTransfer(comp);
+                    done.complete(null);
+                }, done);
+            }
+        } catch (Throwable e) {
+            done.completeExceptionally(e);
         }
     }
 
-    //Awaking other transfers that became correct after currently analyzed transfer has arrived.
-    public LinkedList<ComponentTransfer> awakeTransfers(int pos, ComponentTransfer transfer){
-        return  setTransfersInformation(pos, null, transfer);
+    //This function puts transfer in a queue 'waitingTransfers', as a Waiter that its thread will wait on, or that holds its continuation.
+    //Component knows its Waiter, so that the transfer can be removed from the middle of the queue, when it is a part of a cycle.
+    //It is called while holding the system lock for writing, or in STRIPED mode, the locks of the source and destination devices.
+    public void addToQueue(Waiter waiter){
+        CompData comp = waiter.getComp();
+        int destDev = comp.getDestDev();
+        waitingTransfers[destDev].add(waiter);
+        comp.setWaiter(waiter);
+        comp.setQueuedTime(phaseStart());
+        commitEvent(new TransferEvents.Queued(), comp);
+        deviceInformation[destDev].addWaitingTransfer();
+        if (!comp.isBeingAdded()){
+            deviceInformation[comp.getSrcDev()].addLeavingTransfer();
+        }
     }
 
-    //Awaking transfers in a cycle.
-    public LinkedList<ComponentTransfer> awakeTransfersInCycle(LinkedList<ComponentTransfer> chain){
-        return setTransfersInformation(null, chain, null);
+    //Slot 'pos' on device 'dev' was left by its component, so it becomes free. If there are transfers waiting
+    //for this device, or they started to wait at the same time, we have to wake them up.
+    public void awakeTransfers(int dev, int pos){
+        DevData device = deviceInformation[dev];
+        device.increaseFreeSpaces(pos);
+        if (device.hasWaitingTransfers()){
+            awakeWaitingTransfers(dev);
+        }
     }
 
-    //Since function 'processTransfers' awakes transfers and sets their information (for example about destination device)
-    //for both of the above cases, function 'setTransfersInformation' provides function 'processTransfers' with correct data.
-    public LinkedList<ComponentTransfer> setTransfersInformation(Integer pos, LinkedList<ComponentTransfer> chain, ComponentTransfer transfer){
-        LinkedList<ComponentTransfer> awakenTransfers = new LinkedList<>();
-        ComponentTransfer nextTransfer;
-        int destPosition;
-        if (chain != null){
-            nextTransfer = chain.removeLast();
-        }else{
-            nextTransfer = transfer;
+    //Awaking transfers that became possible, because there are free slots on device 'dev'.
+    //The longest waiting transfers to this device take free slots, and then the slots they leave on their own source devices
+    //are passed on in the same way, as long as there are transfers waiting for them.
+    //Only one device is locked at a time.
+    public void awakeWaitingTransfers(int dev){
+        LinkedList<Integer> devices = new LinkedList<>();
+        WaiterQueue awakenTransfers = new WaiterQueue();
+        devices.add(dev);
+        while (!devices.isEmpty()) {
+            dev = devices.poll();
+            DevData device = deviceInformation[dev];
+            lockDevice(device);
+            try {
+                takeWaitingTransfers(dev, awakenTransfers);
+            } finally {
+                unlockDevice(device);
+            }
+            devices.addAll(releaseFromQueue(awakenTransfers));
         }
-        DeviceId destDevId = nextTransfer.getDestinationDeviceId();
-        DeviceId srcDevId = nextTransfer.getSourceDeviceId();
-        if (pos == null){
-            destPosition = componentInformation.get(chain.peekFirst().getComponentId()).getSrcDevPos(); //Chain will never be empty, because it always has at least 2 elements for the cycle.
-        }else{
-            destPosition = pos;
-        }
-        return processTransfers(srcDevId, destDevId, nextTransfer, destPosition, awakenTransfers, chain);
-    }
-
-    //Function that awakes transfers, and sets all necessary information for transfer before it can be prepared.
-    //It wakes up transfers as long as there hasn't been a cycle, or we found a transfer that had sourceDeviceId == null.
-    public LinkedList<ComponentTransfer> processTransfers(DeviceId srcDevId, DeviceId destDevId, ComponentTransfer nextTransfer, int destPosition, LinkedList<ComponentTransfer> awakenTransfers, LinkedList<ComponentTransfer> chain){
-        do {
-            srcDevId = nextTransfer.getSourceDeviceId();
-            componentInformation.get(nextTransfer.getComponentId()).setDestDevPos(destPosition);
-            componentInformation.get(nextTransfer.getComponentId()).setDestDevId(nextTransfer.getDestinationDeviceId());
-            //Also it decreases/increases available spaces on destination/source device.
-            if (nextTransfer.getDestinationDeviceId() != null){
-                deviceInformation.get(nextTransfer.getDestinationDeviceId()).decreaseFreeSpaces(destPosition);
-            }
-            if (nextTransfer.getSourceDeviceId() != null){
-                deviceInformation.get(nextTransfer.getSourceDeviceId()).increaseFreeSpaces(componentInformation.get(nextTransfer.getComponentId()).getSrcDevPos());
-            }
-            awakenTransfers.add(nextTransfer);
-            if (srcDevId != null && !srcDevId.equals(destDevId)){
-                destPosition = componentInformation.get(nextTransfer.getComponentId()).getSrcDevPos();
-                if (chain == null){
-                    nextTransfer = waitingTransfers.get(srcDevId).poll();
-                }else{
-                    nextTransfer = chain.removeLast();
+    }
+
+    //Takes the longest waiting transfers to device 'dev' out of the queue, as long as there are free slots for them.
+    //It is called while holding a lock that protects the queue.
+    //Transfer whose intent is not taken by the placement log gives its slot back to the next one, and is failed,
+    //so that it is not left in the queue, where nobody could wake it up anymore.
+    public void takeWaitingTransfers(int dev, WaiterQueue awakenTransfers){
+        DevData device = deviceInformation[dev];
+        while (!waitingTransfers[dev].isEmpty()) {
+            int pos = device.reserveSlot();
+            if (pos == -1){
+                return;
+            }
+            Waiter waiter = waitingTransfers[dev].poll();
+            CompData nextComp = waiter.getComp();
+            nextComp.setWaiter(null);
+            device.removeWaitingTransfer();
+            if (!nextComp.isBeingAdded()){
+                deviceInformation[nextComp.getSrcDev()].removeLeavingTransfer();
+            }
+            nextComp.setDestDevPos(pos);
+            try {
+                logIntent(nextComp);
+            } catch (RuntimeException e) {
+                device.increaseFreeSpaces(pos);
+                abandonTransfer(nextComp);
+                waiter.fail(e);
+                awakenTransfers.add(waiter);
+                continue;
+            }
+            chainWakeups.increment();
+            commitEvent(new TransferEvents.WokenByChain(), nextComp);
+            awakenTransfers.add(waiter);
+        }
+    }
+
+    //Serves queues of 'devices', and then queues of source devices of the transfers that were served, as long as they have
+    //waiting transfers. Slots left by the served transfers become free at once, but transfers are only put in 'awakenTransfers',
+    //to be released later. It is called while holding the system lock for writing.
+    public void takeChains(LinkedList<Integer> devices, WaiterQueue awakenTransfers){
+        WaiterQueue taken = new WaiterQueue();
+        while (!devices.isEmpty()) {
+            takeWaitingTransfers(devices.poll(), taken);
+            while (!taken.isEmpty()) {
+                Waiter waiter = taken.poll();
+                CompData comp = waiter.getComp();
+                if (!waiter.hasFailed() && !comp.isBeingAdded()){
+                    DevData device = deviceInformation[comp.getSrcDev()];
+                    device.increaseFreeSpaces(comp.getSrcDevPos());
+                    if (device.hasWaitingTransfers()){
+                        devices.add(comp.getSrcDev());
+                    }
                 }
+                awakenTransfers.add(waiter);
             }
-        } while (srcDevId != null && !srcDevId.equals(destDevId) && nextTransfer != null);
-        //The result of this function is a list of transfers that are now ready to be 'prepared'.
-        return awakenTransfers;
+        }
     }
 
-    //This function updates component information after transfer has ended it's 'perform'.
-    public void endTransfer(ComponentTransfer transfer){
-        try {
-            mutex.acquire();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("panic: unexpected thread interruption", e);
+    //Transfers taken out of the queue are released, and slots they leave on their source devices become free.
+    //Transfers that have failed do not leave anything.
+    //Returns source devices that have transfers waiting for them.
+    public LinkedList<Integer> releaseFromQueue(WaiterQueue awakenTransfers){
+        LinkedList<Integer> devices = new LinkedList<>();
+        while (!awakenTransfers.isEmpty()) {
+            Waiter waiter = awakenTransfers.poll();
+            if (waiter.hasFailed()){
+                waiter.release();
+                continue;
+            }
+            CompData comp = waiter.getComp();
+            //Source of the transfer has to be read before waking the transfer up, as it changes when the transfer ends.
+            int srcDev = comp.getLeftDev();
+            int srcPos = comp.getSrcDevPos();
+            waiter.release();
+            if (srcDev != NO_DEVICE){
+                DevData device = deviceInformation[srcDev];
+                device.increaseFreeSpaces(srcPos);
+                if (device.hasWaitingTransfers()){
+                    devices.add(srcDev);
+                }
+            }
+        }
+        return devices;
+    }
+
+    //Awaking transfers in a cycle, put in the 'cycle' array by 'checkForCycle', with the current transfer first.
+    //It is called while holding the system lock for writing.
+    //Each transfer takes the slot of the transfer that is waiting for its source device, so that no slot becomes free.
+    //Transfers are removed from their queues only after all of them have their destinations set.
+    //Transfers in cycles are not necessarily the longest waiting transfers on their destination devices,
+    //so they are removed from the middle of their queues, through their Waiters.
+    //They are put in 'awakenTransfers', and released by the caller after the lock is unlocked, as releasing an asynchronous
+    //transfer may run its 'prepare' at once, if its executor runs tasks in the calling thread.
+    //If the placement log does not take their intents, all of them fail, as none of them can move without the others.
+    public void awakeTransfersInCycle(int cycleLength, WaiterQueue awakenTransfers){
+        for (int i = 1; i < cycleLength; i++) {
+            componentTable.get(cycle[i]).setDestDevPos(componentTable.get(cycle[i - 1]).getSrcDevPos());
+        }
+        //Last transfer in the cycle leaves its slot on destination device of the first one.
+        componentTable.get(cycle[0]).setDestDevPos(componentTable.get(cycle[cycleLength - 1]).getSrcDevPos());
+        //Transfers take places of each other, so their intents are logged together.
+        RuntimeException failure = null;
+        if (log != null){
+            CompData[] cycleComps = new CompData[cycleLength];
+            for (int i = 0; i < cycleLength; i++) {
+                cycleComps[i] = componentTable.get(cycle[i]);
+            }
+            try {
+                long logPosition = log.appendIntent(cycleComps, cycleLength);
+                for (CompData comp : cycleComps) {
+                    comp.setLogPosition(logPosition);
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        if (failure == null){
+            cyclesResolved.increment();
+        }
+        for (int i = 0; i < cycleLength; i++) {
+            CompData comp = componentTable.get(cycle[i]);
+            int destDev = comp.getDestDev();
+            deviceInformation[destDev].removeWaitingTransfer();
+            deviceInformation[comp.getSrcDev()].removeLeavingTransfer();
+            TransferEvents.WokenByCycle event = new TransferEvents.WokenByCycle();
+            event.cycleLength = cycleLength;
+            commitEvent(event, comp);
+            Waiter waiter = comp.getWaiter();
+            comp.setWaiter(null);
+            waitingTransfers[destDev].remove(waiter);
+            if (failure != null){
+                abandonTransfer(comp);
+                waiter.fail(failure);
+            }
+            awakenTransfers.add(waiter);
         }
+    }
+
+    //This function updates component information after transfer has ended it's 'perform'.
+    //It takes neither the system lock nor a lock of a queue in either mode, as queues of waiting transfers do not depend on it,
+    //and transfers that read the component through a queue read only components that are still operated on,
+    //whose state does not change. It does take locks: the write locks of members of the source and of the destination device,
+    //one after the other, each held for one change of members, so it waits only for another transfer ending on the same device.
+    //Only the transfer that operates on the component changes it, and the new state is written with a single store at the end,
+    //after which the component can be claimed by the next transfer, so nothing of the component is touched after it.
+    public void endTransfer(CompData comp){
+        operatedComponents.decrement();
         //Component changes it's device, and is no longer operated on.
-        if (transfer.getDestinationDeviceId() != null){
-            componentInformation.get(transfer.getComponentId()).endOperation();
-            componentInformation.get(transfer.getComponentId()).changePosition();
+        //It leaves the members of its previous device, and joins the members of the new one.
+        if (comp.getDestDev() != NO_DEVICE){
+            if (!comp.isBeingAdded()){
+                deviceInformation[comp.getSrcDev()].removeMember(comp);
+            }
+            deviceInformation[comp.getDestDev()].addMember(comp);
+            comp.changePosition();
         }else{
             //If it was a transfer that deleted a component, we simply remove it as it no longer exists.
-            componentInformation.remove(transfer.getComponentId());
+            //Its index can be given to another component only after no transfer can find it, and no device has it as a member.
+            deviceInformation[comp.getSrcDev()].removeMember(comp);
+            comp.remove();
+            componentInformation.remove(comp.getCompId());
+            componentTable.remove(comp.getIndex());
+        }
+    }
+
+    //Transfer that has claimed its component, but has not got its place, gives the component up.
+    //Component that was being added is removed, as it has never been on any device.
+    private void abandonTransfer(CompData comp){
+        operatedComponents.decrement();
+        if (comp.isBeingAdded()){
+            comp.remove();
+            componentInformation.remove(comp.getCompId());
+            componentTable.remove(comp.getIndex());
+        }else{
+            comp.giveUp();
+        }
+    }
+
+    //Queries read only the map of components and atomics of devices, see PlacementQueries.
+    @Override
+    public DeviceId locate(ComponentId compId){
+        CompData comp = componentInformation.get(compId);
+        if (comp == null){
+            return null;
+        }
+        int dev = comp.getLocation();
+        return dev == NO_DEVICE ? null : deviceIds[dev];
+    }
+
+    @Override
+    public int freeSlots(DeviceId devId){
+        return deviceInformation[queriedDevice(devId)].getFreeSpaces();
+    }
+
+    @Override
+    public int occupiedSlots(DeviceId devId){
+        DevData device = deviceInformation[queriedDevice(devId)];
+        return device.getSize() - device.getFreeSpaces();
+    }
+
+    //Components are found through the members of the device, so only the components on it are read.
+    //Component joins the members of its destination before its transfer ends, so it is reported only once it is on this device.
+    @Override
+    //Members that have already left the device, but were read before that, are skipped by their location.
+    //Component whose transfer is ending is on no members between 'removeMember' and 'addMember' in 'endTransfer',
+    //so it is missing from the answers for both of its devices for that moment, as PlacementQueries says.
+    public List<ComponentId> componentsOn(DeviceId devId){
+        int dev = queriedDevice(devId);
+        CompData[] members = deviceInformation[dev].getMembers();
+        ArrayList<ComponentId> components = new ArrayList<>(members.length);
+        for (CompData comp : members) {
+            if (comp.getLocation() == dev){
+                components.add(comp.getCompId());
+            }
+        }
+        return components;
+    }
+
+    private int queriedDevice(DeviceId devId){
+        int dev = deviceIndex(devId);
+        if (dev < 0){
+            throw new IllegalArgumentException("Device " + devId + " does not exist in the system.");
+        }
+        return dev;
+    }
+
+    //Gauges read by StorageSystemMonitor, devices are given in the order of their indexes.
+    Map<String, Integer> queueLengths(){
+        LinkedHashMap<String, Integer> lengths = new LinkedHashMap<>();
+        for (int dev = 0; dev < deviceInformation.length; dev++) {
+            lengths.put(deviceName(dev), deviceInformation[dev].getWaitingTransfers());
+        }
+        return lengths;
+    }
+
+    Map<String, Integer> freeSlots(){
+        LinkedHashMap<String, Integer> slots = new LinkedHashMap<>();
+        for (int dev = 0; dev < deviceInformation.length; dev++) {
+            slots.put(deviceName(dev), deviceInformation[dev].getFreeSpaces());
+        }
+        return slots;
+    }
+
+    long operatedComponents(){
+        return operatedComponents.sum();
+    }
+
+    long cyclesResolved(){
+        return cyclesResolved.sum();
+    }
+
+    long chainWakeups(){
+        return chainWakeups.sum();
+    }
+
+    Map<String, Long> rejectedTransfers(){
+        LinkedHashMap<String, Long> rejected = new LinkedHashMap<>();
+        rejectedTransfers.forEach((name, count) -> rejected.put(name, count.sum()));
+        return rejected;
+    }
+
+    //Searches for a cycle closed by the queued transfer of 'comp', and wakes its transfers up, putting them in 'cycleTransfers'.
+    //It is called while holding the system lock for writing.
+    private void resolveCycle(CompData comp, WaiterQueue cycleTransfers){
+        int cycleLength = checkForCycle(comp);
+        if (cycleLength > 0) {
+            awakeTransfersInCycle(cycleLength, cycleTransfers);
         }
-        mutex.release();
+    }
+
+    //Cycle needs some transfer waiting to leave destination device of the queued transfer of 'comp',
+    //and some transfer waiting to arrive on its source device.
+    //Edge leaving a device is counted while holding the lock of that device, and edge arriving on it is queued while holding it,
+    //so of transfers closing a cycle at the same time, at least the last one to lock its devices sees that it may close it.
+    //Counted edges can only be taken out of the graph meanwhile, which makes the answer too cautious, but never wrong.
+    private boolean mayCloseCycle(CompData comp){
+        return !comp.isBeingAdded()
+                && deviceInformation[comp.getDestDev()].hasLeavingTransfers()
+                && deviceInformation[comp.getSrcDev()].hasWaitingTransfers();
     }
 
     //Function checking if there is a cycle in a graph represented by graph 'waitingTransfers'.
     //We interpret waiting transfers as edges, and devices as vertexes.
-    public LinkedList<ComponentTransfer> checkForCycle(ComponentTransfer transfer){
-        //Initializing necessary information, such as Map determining if a vertex has already been visited.
-        HashMap<DeviceId, LinkedList<ComponentTransfer>> adjacency = waitingTransfers;
-        HashMap<DeviceId, Boolean> visited = new HashMap<>();
-        for (DeviceId devId : adjacency.keySet()){
-            visited.put(devId, false);
-        }
-        LinkedList<ComponentTransfer> stack = new LinkedList<>();
-        LinkedList<ComponentTransfer> result = new LinkedList<>();
-        if (DFScycle(adjacency, transfer, transfer, stack, visited)){
-            result = stack;
-        }
-        return result;
-    }
-
-    //Using DFS to determine if graph has a cycle.
-    public boolean DFScycle(HashMap<DeviceId, LinkedList<ComponentTransfer>> graph, ComponentTransfer firstTransfer, ComponentTransfer currentTransfer, LinkedList<ComponentTransfer> stack, HashMap<DeviceId, Boolean> visited){
-        ComponentTransfer nextTransfer;
-        LinkedList<ComponentTransfer> neighbours;
-        visited.put(currentTransfer.getDestinationDeviceId(), true);
-        stack.push(currentTransfer);
-        if(currentTransfer.getSourceDeviceId() != null){
-            neighbours = new LinkedList<>(graph.get(currentTransfer.getSourceDeviceId())); //List of neighbours of the current vertex, we will visit all of them.
-            while(!neighbours.isEmpty()){
-                nextTransfer = neighbours.peekFirst();
-                if (nextTransfer.getSourceDeviceId() != null) {
-                    //If current transfer is the same as starting transfer, we found a cycle.
-                    if (nextTransfer.getSourceDeviceId().equals(firstTransfer.getDestinationDeviceId())) {
-                        stack.push(nextTransfer);
-                        return true;
-                    }
-                    //Otherwise, if there is a vertex that hasn't been visited yet, and we will achieve the starting transfer if we move to it, we also found a cycle.
-                    if (!visited.get(nextTransfer.getSourceDeviceId()) && DFScycle(graph, firstTransfer, nextTransfer, stack, visited)) {
-                        return true;
+    //The graph does not change while holding the system lock for writing, and neither does the number of edges of every vertex,
+    //so we can see if the cycle is possible at all, before we start searching for it.
+    //Returns the number of transfers in the cycle, or 0 if there is no cycle.
+    public int checkForCycle(CompData comp){
+        if (!mayCloseCycle(comp)){
+            return 0;
+        }
+        nextSearch();
+        return DFScycle(comp);
+    }
+
+    //Only vertexes reachable from the searched transfers are visited, and marking them with a new number of search
+    //makes all vertexes unvisited at once.
+    private void nextSearch(){
+        searchNumber++;
+        if (searchNumber == Integer.MAX_VALUE){
+            Arrays.fill(visited, 0);
+            searchNumber = 1;
+        }
+    }
+
+    //Resolves every cycle going through the queued transfers of a batch, with one DFS shared by all of them,
+    //instead of a search for every transfer. It is called while holding the system lock for writing.
+    //Vertex whose search has ended is marked with the number of the search, and is skipped by searches started later,
+    //as nothing reachable from it closes a cycle. Vertexes on the current path are marked with the negated number,
+    //and an edge leading to one of them closes a cycle, made of the edges of the path from it, and of that edge.
+    //Cycle is resolved at once, which takes its edges out of the graph, and the search goes back to the vertex
+    //the cycle starts from. Vertexes it leaves become unvisited, so that their other edges are searched again
+    //if they are reached later, as the edge they were reached by is gone. Every time it happens an edge is taken out,
+    //so the search ends, and it never adds an edge, so no cycle can appear behind it.
+    private void resolveCycles(List<Waiter> queued, WaiterQueue awakenTransfers){
+        nextSearch();
+        for (Waiter waiter : queued) {
+            CompData comp = waiter.getComp();
+            int dev = comp.getDestDev();
+            if (dev != NO_DEVICE && waiter.isIn(waitingTransfers[dev]) && visited[dev] != searchNumber && mayCloseCycle(comp)) {
+                searchCycles(dev, awakenTransfers);
+            }
+        }
+    }
+
+    //Iterative DFS from vertex 'root', following edges from a device to sources of transfers waiting to arrive on it.
+    //Path has at most one vertex of every device, so 'pathDevs' and 'pathEdges' never overflow.
+    private void searchCycles(int root, WaiterQueue awakenTransfers){
+        int depth = 0;
+        pathDevs[0] = root;
+        pathEdges[0] = waitingTransfers[root].first();
+        visited[root] = -searchNumber;
+        while (depth >= 0) {
+            int dev = pathDevs[depth];
+            Waiter waiter = pathEdges[depth];
+            if (waiter == null){
+                visited[dev] = searchNumber;
+                depth--;
+                continue;
+            }
+            //Next edge is taken before the search goes on, as a cycle found on the way takes this one out of its queue.
+            pathEdges[depth] = waiter.getNext();
+            CompData nextComp = waiter.getComp();
+            int nextDev = nextComp.getLeftDev();
+            if (nextDev == NO_DEVICE || visited[nextDev] == searchNumber){
+                continue;
+            }
+            if (visited[nextDev] == -searchNumber){
+                awakeTransfersInCycle(readCycle(nextComp), awakenTransfers);
+                while (pathDevs[depth] != nextDev) {
+                    visited[pathDevs[depth]] = 0;
+                    depth--;
+                }
+                continue;
+            }
+            //Vertex without transfers waiting to arrive on it cannot lead anywhere.
+            if (!deviceInformation[nextDev].hasWaitingTransfers()){
+                visited[nextDev] = searchNumber;
+                continue;
+            }
+            reachedBy[nextDev] = nextComp.getIndex();
+            depth++;
+            pathDevs[depth] = nextDev;
+            pathEdges[depth] = waitingTransfers[nextDev].first();
+            visited[nextDev] = -searchNumber;
+        }
+    }
+
+    //Using DFS to determine if graph has a cycle. Instead of recursion, transfers leading to vertexes that we will visit are kept on 'dfsStack',
+    //so that long chains of waiting transfers cannot overflow the stack of the thread.
+    //For every visited vertex we remember the transfer that led to it, so that the cycle can be read backwards, starting from its last transfer.
+    public int DFScycle(CompData firstComp){
+        int firstDev = firstComp.getDestDev();
+        visited[firstDev] = searchNumber;
+        int stackSize = 0;
+        dfsStack[stackSize++] = firstComp.getIndex();
+        while (stackSize > 0) {
+            int current = dfsStack[--stackSize];
+            int dev = componentTable.get(current).getSrcDev();
+            if (visited[dev] == searchNumber){
+                continue;
+            }
+            visited[dev] = searchNumber;
+            reachedBy[dev] = current;
+            //Neighbours of the current vertex, we will visit all of them.
+            for (Waiter waiter = waitingTransfers[dev].first(); waiter != null; waiter = waiter.getNext()){
+                CompData nextComp = waiter.getComp();
+                int nextDev = nextComp.getLeftDev();
+                if (nextDev == NO_DEVICE){
+                    continue;
+                }
+                //If current transfer is the same as starting transfer, we found a cycle.
+                if (nextDev == firstDev) {
+                    return readCycle(nextComp);
+                }
+                //Otherwise, if there is a vertex that hasn't been visited yet, we will visit it later.
+                //Vertex without transfers waiting to arrive on it cannot lead anywhere.
+                if (visited[nextDev] != searchNumber && deviceInformation[nextDev].hasWaitingTransfers()){
+                    //Every transfer is put on the stack at most once, as its destination vertex is visited only once.
+                    if (stackSize == dfsStack.length){
+                        dfsStack = Arrays.copyOf(dfsStack, 2 * stackSize);
                     }
+                    dfsStack[stackSize++] = nextComp.getIndex();
                 }
-                neighbours.poll();
             }
         }
-        stack.pop();
-        return false;
+        return 0;
+    }
+
+    //Puts transfers of the found cycle in the 'cycle' array, going back from the last transfer, through transfers that led to each vertex,
+    //up to the first one, whose destination is the source of the last one.
+    public int readCycle(CompData lastComp){
+        int closingDev = lastComp.getLeftDev();
+        int cycleLength = 1;
+        for (int comp = lastComp.getIndex(); componentTable.get(comp).getDestDev() != closingDev;
+             comp = reachedBy[componentTable.get(comp).getDestDev()]){
+            cycleLength++;
+        }
+        if (cycleLength > cycle.length){
+            cycle = new int[Math.max(cycleLength, 2 * cycle.length)];
+        }
+        int comp = lastComp.getIndex();
+        for (int i = cycleLength - 1; i > 0; i--) {
+            cycle[i] = comp;
+            comp = reachedBy[componentTable.get(comp).getDestDev()];
+        }
+        cycle[0] = comp;
+        return cycleLength;
     }
 }
@@ -7,8 +7,12 @@
  */
 package cp2023.solution;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import cp2023.base.ComponentId;
 import cp2023.base.DeviceId;
@@ -20,7 +24,81 @@ public final class StorageSystemFactory {
     public static StorageSystem newSystem(
             Map<DeviceId, Integer> deviceTotalSlots,
             Map<ComponentId, DeviceId> componentPlacement) {
-            // FIXME: implement
-            return new StorageSys(deviceTotalSlots, componentPlacement);
+            return register(new StorageSys(deviceTotalSlots, componentPlacement));
     }
-}
\ No newline at end of file
+
+    public static StorageSystem newSystem(
+            Map<DeviceId, Integer> deviceTotalSlots,
+            Map<ComponentId, DeviceId> componentPlacement,
+            LockingMode lockingMode) {
+            return register(new StorageSys(deviceTotalSlots, componentPlacement, lockingMode));
+    }
+
+    public static StorageSystem newSystem(
+            Map<DeviceId, Integer> deviceTotalSlots,
+            Map<ComponentId, DeviceId> componentPlacement,
+            LockingMode lockingMode,
+            TransferStatistics statistics) {
+            return register(new StorageSys(deviceTotalSlots, componentPlacement, lockingMode, statistics));
+    }
+
+    public static AsyncStorageSystem newAsyncSystem(
+            Map<DeviceId, Integer> deviceTotalSlots,
+            Map<ComponentId, DeviceId> componentPlacement,
+            LockingMode lockingMode) {
+            return register(new StorageSys(deviceTotalSlots, componentPlacement, lockingMode));
+    }
+
+    public static AsyncStorageSystem newAsyncSystem(
+            Map<DeviceId, Integer> deviceTotalSlots,
+            Map<ComponentId, DeviceId> componentPlacement,
+            LockingMode lockingMode,
+            TransferStatistics statistics) {
+            return register(new StorageSys(deviceTotalSlots, componentPlacement, lockingMode, statistics));
+    }
+
+    //System with the placement saved by SystemSnapshot.write.
+    public static AsyncStorageSystem restoreSystem(
+            Path snapshot,
+            LockingMode lockingMode) throws IOException {
+            return register(new StorageSys(SystemSnapshot.read(snapshot), lockingMode, null, null));
+    }
+
+    //System whose placement survives crashes, see PlacementLog. If the directory of the log already holds a placement,
+    //the system is recovered from it, and the given maps are not used.
+    public static AsyncStorageSystem newDurableSystem(
+            Map<DeviceId, Integer> deviceTotalSlots,
+            Map<ComponentId, DeviceId> componentPlacement,
+            LockingMode lockingMode,
+            PlacementLog log) throws IOException {
+            return newDurableSystem(deviceTotalSlots, componentPlacement, lockingMode, null, log);
+    }
+
+    public static AsyncStorageSystem newDurableSystem(
+            Map<DeviceId, Integer> deviceTotalSlots,
+            Map<ComponentId, DeviceId> componentPlacement,
+            LockingMode lockingMode,
+            TransferStatistics statistics,
+            PlacementLog log) throws IOException {
+            return register(new StorageSys(log.recover(deviceTotalSlots, componentPlacement), lockingMode, statistics, log));
+    }
+
+    //Executor for 'executeAsync' and 'executeAll' that runs every 'prepare' and 'perform' in a new virtual thread,
+    //so that a transfer never waits for a thread of a pool, and blocking operations of transfers cost no platform thread.
+    //Waits of the system itself never pin the carrier thread, see StorageSys.
+    //It needs a runtime that has virtual threads (Java 21 or newer), otherwise it is an UnsupportedOperationException.
+    //It is found by reflection, so that the system still compiles and runs on older Java.
+    public static ExecutorService newVirtualThreadExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new UnsupportedOperationException("Virtual threads are not available in Java " + Runtime.version().feature() + ".", e);
+            }
+    }
+
+    //Every created system can be watched over JMX, see StorageSystemMonitor.
+    private static StorageSys register(StorageSys system) {
+            StorageSystemMonitor.register(system);
+            return system;
+    }
+}
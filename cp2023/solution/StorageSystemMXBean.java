@@ -0,0 +1,30 @@
+package cp2023.solution;
+
+import java.util.Map;
+
+/*
+Live gauges of a storage system, readable over JMX. Values are read from counters and atomics that transfers maintain,
+without taking any lock, so they can be read at any time, but values of different devices are not taken at the same moment.
+QueueLengths: number of transfers waiting in the queue of every device.
+FreeSlots: number of free slots of every device, including slots that are being left by their components.
+OperatedComponents: number of components that have a transfer in progress.
+CyclesResolved: number of cycles of waiting transfers that were found and woken up.
+ChainWakeups: number of queued transfers that got a slot freed by another transfer.
+RejectedTransfers: number of incorrect transfers, by the simple name of the exception they got.
+ */
+
+public interface StorageSystemMXBean {
+
+    Map<String, Integer> getQueueLengths();
+
+    Map<String, Integer> getFreeSlots();
+
+    long getOperatedComponents();
+
+    long getCyclesResolved();
+
+    long getChainWakeups();
+
+    Map<String, Long> getRejectedTransfers();
+
+}
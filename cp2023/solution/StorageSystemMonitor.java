@@ -0,0 +1,101 @@
+package cp2023.solution;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+MBean of a storage system, registered in the platform MBean server by StorageSystemFactory,
+under the name 'cp2023.solution:type=StorageSystem,name=StorageSystem-<number of the system>'.
+It keeps only a weak reference to the system, so registering it does not keep the system alive.
+When the system is collected, a Cleaner unregisters its MBean, even if nobody reads it anymore.
+MBean that is read after the system is collected, but before the Cleaner has run, unregisters itself at once.
+ */
+
+public final class StorageSystemMonitor implements StorageSystemMXBean {
+    private static final AtomicInteger systemNumber = new AtomicInteger();
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private final WeakReference<StorageSys> system;
+    private final ObjectName name;
+
+    private StorageSystemMonitor(StorageSys system, ObjectName name) {
+        this.system = new WeakReference<>(system);
+        this.name = name;
+    }
+
+    //Registers a new MBean of the system, and returns its name.
+    public static ObjectName register(StorageSys system) {
+        try {
+            ObjectName name = new ObjectName("cp2023.solution:type=StorageSystem,name=StorageSystem-" + systemNumber.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StorageSystemMonitor(system, name), name);
+            //Action must not refer to the system, or the system would never become unreachable.
+            cleaner.register(system, () -> unregister(name));
+            return name;
+        } catch (JMException e) {
+            throw new RuntimeException("panic: cannot register the MBean of the storage system", e);
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getQueueLengths() {
+        StorageSys current = system();
+        return current == null ? Collections.emptyMap() : current.queueLengths();
+    }
+
+    @Override
+    public Map<String, Integer> getFreeSlots() {
+        StorageSys current = system();
+        return current == null ? Collections.emptyMap() : current.freeSlots();
+    }
+
+    @Override
+    public long getOperatedComponents() {
+        StorageSys current = system();
+        return current == null ? 0 : current.operatedComponents();
+    }
+
+    @Override
+    public long getCyclesResolved() {
+        StorageSys current = system();
+        return current == null ? 0 : current.cyclesResolved();
+    }
+
+    @Override
+    public long getChainWakeups() {
+        StorageSys current = system();
+        return current == null ? 0 : current.chainWakeups();
+    }
+
+    @Override
+    public Map<String, Long> getRejectedTransfers() {
+        StorageSys current = system();
+        return current == null ? Collections.emptyMap() : current.rejectedTransfers();
+    }
+
+    private StorageSys system() {
+        StorageSys current = system.get();
+        if (current == null) {
+            unregister(name);
+        }
+        return current;
+    }
+
+    private static void unregister(ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            //It has been unregistered by the Cleaner, or by a read, at the same time.
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package cp2023.solution;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import cp2023.base.ComponentId;
+import cp2023.base.DeviceId;
+import cp2023.base.StorageSystem;
+
+/*
+Snapshot of the placement of components of a quiescent system, in a compact binary file, from which a system
+can be restored by StorageSystemFactory.restoreSystem without building any map of ids first.
+File is a header of four ints: magic number, version, number of devices and number of components,
+followed by columns of ints: ids of devices, their capacities, ids of components, indexes of their devices,
+and their places on these devices. Ints are little-endian, so that columns are copied straight to arrays
+from a memory-mapped file, and reading is bounded by the speed of the disk.
+Ids are saved as the ints they are made of.
+Snapshot is written to a temporary file first, and moved in place of the given file when it is complete.
+A file is mapped at once, so it is limited to 2 GB, about 170 million components.
+ */
+
+public final class SystemSnapshot {
+    private static final int MAGIC = 0x43505353;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 4;
+
+    private SystemSnapshot() {
+    }
+
+    //Writes the current placement of a system created by StorageSystemFactory. No transfer can be in progress.
+    public static void write(StorageSystem system, Path file) throws IOException {
+        if (!(system instanceof StorageSys)) {
+            throw new IllegalArgumentException("Only systems created by StorageSystemFactory can be saved.");
+        }
+        write(((StorageSys) system).currentPlacement(), file);
+    }
+
+    static void write(InitialPlacement placement, Path file) throws IOException {
+        int devices = placement.deviceIds.length;
+        int components = placement.compIds.length;
+        long size = 4L * (HEADER_INTS + 2L * devices + 3L * components);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Snapshot of " + components + " components does not fit in a single file mapping.");
+        }
+        int[] deviceIds = new int[devices];
+        for (int dev = 0; dev < devices; dev++) {
+            deviceIds[dev] = placement.deviceIds[dev].getId();
+        }
+        int[] compIds = new int[components];
+        for (int c = 0; c < components; c++) {
+            compIds[c] = placement.compIds[c].getId();
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            IntBuffer ints = buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            ints.put(MAGIC).put(VERSION).put(devices).put(components);
+            ints.put(deviceIds).put(placement.capacities);
+            ints.put(compIds).put(placement.compDevs).put(placement.positions);
+            buffer.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Reads a placement, checking that it describes correct devices and places. Components placed more than once,
+    //or on the same place, are found when the system is built.
+    static InitialPlacement read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 4L * HEADER_INTS || size > Integer.MAX_VALUE) {
+                throw new IOException("File " + file + " is not a snapshot of a storage system.");
+            }
+            IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            if (ints.get() != MAGIC || ints.get() != VERSION) {
+                throw new IOException("File " + file + " is not a snapshot of a storage system.");
+            }
+            int devices = ints.get();
+            int components = ints.get();
+            if (devices < 0 || components < 0 || size != 4L * (HEADER_INTS + 2L * devices + 3L * components)) {
+                throw new IOException("Snapshot " + file + " is damaged, its size does not match its header.");
+            }
+
+            int[] ids = new int[Math.max(devices, components)];
+            ints.get(ids, 0, devices);
+            DeviceId[] deviceIds = new DeviceId[devices];
+            for (int dev = 0; dev < devices; dev++) {
+                deviceIds[dev] = new DeviceId(ids[dev]);
+            }
+            int[] capacities = new int[devices];
+            ints.get(capacities);
+            ints.get(ids, 0, components);
+            ComponentId[] compIds = new ComponentId[components];
+            for (int c = 0; c < components; c++) {
+                compIds[c] = new ComponentId(ids[c]);
+            }
+            int[] compDevs = new int[components];
+            ints.get(compDevs);
+            int[] positions = new int[components];
+            ints.get(positions);
+
+            for (int dev = 0; dev < devices; dev++) {
+                if (capacities[dev] <= 0) {
+                    throw new IOException("Snapshot " + file + " is damaged, device " + deviceIds[dev] + " has no slots.");
+                }
+            }
+            for (int c = 0; c < components; c++) {
+                if (compDevs[c] < 0 || compDevs[c] >= devices || positions[c] < 0 || positions[c] >= capacities[compDevs[c]]) {
+                    throw new IOException("Snapshot " + file + " is damaged, component " + compIds[c] + " is not on a place of any device.");
+                }
+            }
+            return new InitialPlacement(deviceIds, capacities, compIds, compDevs, positions);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cp2023.solution;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+Java Flight Recorder events of the lifecycle of a transfer, committed by StorageSys.
+Every event has ids of the component, and of the devices that the transfer leaves and arrives on (null if there is none).
+Events are created where they happen, and their fields are filled in only if they are going to be committed,
+so when nothing is recorded they cost only a check of a flag, and the event objects do not escape.
+The only exception is SlotHandoff of an asynchronous transfer, which is kept by the continuation that runs 'perform',
+so it is created only while it is recorded, see 'asyncSlotHandoff'.
+Submitted, SlotHandoff, Prepare and Perform last for the time of their phase, the others are instant.
+ */
+
+final class TransferEvents {
+
+    private static final EventType SLOT_HANDOFF = EventType.getEventType(SlotHandoff.class);
+
+    private TransferEvents() {
+    }
+
+    //SlotHandoff event of an asynchronous transfer, already begun, or null if no recording takes it.
+    static SlotHandoff asyncSlotHandoff() {
+        if (!SLOT_HANDOFF.isEnabled()) {
+            return null;
+        }
+        SlotHandoff event = new SlotHandoff();
+        event.begin();
+        return event;
+    }
+
+    @Category({"Storage System", "Transfer"})
+    abstract static class TransferEvent extends Event {
+        @Label("Component")
+        String component;
+
+        @Label("Source Device")
+        String source;
+
+        @Label("Destination Device")
+        String destination;
+    }
+
+    @Name("cp2023.TransferSubmitted")
+    @Label("Transfer Submitted")
+    @Description("Transfer was checked, and its component was marked as operated on")
+    static final class Submitted extends TransferEvent {
+    }
+
+    @Name("cp2023.TransferQueued")
+    @Label("Transfer Queued")
+    @Description("Transfer was put in the queue of its destination device, as it had no free slot")
+    static final class Queued extends TransferEvent {
+    }
+
+    @Name("cp2023.TransferWokenByChain")
+    @Label("Transfer Woken By Chain")
+    @Description("Queued transfer got a slot that was freed, possibly by a chain of other transfers")
+    static final class WokenByChain extends TransferEvent {
+    }
+
+    @Name("cp2023.TransferWokenByCycle")
+    @Label("Transfer Woken By Cycle")
+    @Description("Queued transfer was woken up as a part of a cycle of waiting transfers")
+    static final class WokenByCycle extends TransferEvent {
+        @Label("Cycle Length")
+        int cycleLength;
+    }
+
+    @Name("cp2023.TransferSlotHandoff")
+    @Label("Slot Handoff")
+    @Description("Transfer waited for the previous component to leave its reserved slot")
+    static final class SlotHandoff extends TransferEvent {
+    }
+
+    @Name("cp2023.TransferPrepare")
+    @Label("Transfer Prepare")
+    static final class Prepare extends TransferEvent {
+    }
+
+    @Name("cp2023.TransferPerform")
+    @Label("Transfer Perform")
+    static final class Perform extends TransferEvent {
+    }
+}
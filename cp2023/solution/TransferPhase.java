@@ -0,0 +1,22 @@
+package cp2023.solution;
+
+/*
+Phases of a transfer, whose durations are recorded by TransferStatistics.
+LOCK_ACQUIRE: waiting for a lock protecting queues of waiting transfers.
+VALIDATION: checking if the transfer is correct, and marking its component as operated on.
+QUEUE_WAIT: from putting the transfer in the queue of its destination device, until it continues with its 'prepare'.
+HANDOFF_WAIT: waiting until the previous component leaves the reserved slot, after the transfer's own 'prepare'.
+Transfers in a cycle wait for the 'prepare' of the transfer whose slot they take here too.
+PREPARE, PERFORM: time spent in the transfer's own 'prepare' and 'perform'.
+LOG_SYNC: waiting until the change of placement made by the transfer is durable, in a system with a placement log.
+ */
+
+public enum TransferPhase {
+    LOCK_ACQUIRE,
+    VALIDATION,
+    QUEUE_WAIT,
+    HANDOFF_WAIT,
+    PREPARE,
+    PERFORM,
+    LOG_SYNC
+}
@@ -0,0 +1,90 @@
+package cp2023.solution;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import cp2023.base.DeviceId;
+
+/*
+Histograms of durations of the phases of transfers, kept separately for every device, which can be read while
+the system is running. Statistics are given to the system when it is created, and it records them only then,
+so a system created without them does not even read the clock.
+Every phase of a transfer is recorded for its destination device, or for its source device if it deletes a component,
+except for acquiring a lock of a queue, which is recorded for the device of that queue.
+Histograms of a device are created when the first phase is recorded for it, so unused devices cost nothing.
+Recording is a single atomic increment, and snapshots are copies, so they can be read while transfers go on.
+ */
+
+public final class TransferStatistics {
+    private static final TransferPhase[] PHASES = TransferPhase.values();
+
+    private HashMap<DeviceId, Integer> deviceIndexes;
+    private AtomicReferenceArray<LatencyHistogram[]> histograms;
+
+    public TransferStatistics() {
+    }
+
+    //Called by the system, with indexes of its devices, before any transfer is executed.
+    synchronized void attach(Map<DeviceId, Integer> deviceIndexes) {
+        if (this.deviceIndexes != null) {
+            throw new IllegalStateException("Statistics are already used by another system.");
+        }
+        this.histograms = new AtomicReferenceArray<>(deviceIndexes.size());
+        this.deviceIndexes = new HashMap<>(deviceIndexes);
+    }
+
+    void record(int dev, TransferPhase phase, long nanos) {
+        LatencyHistogram[] deviceHistograms = histograms.get(dev);
+        if (deviceHistograms == null) {
+            deviceHistograms = new LatencyHistogram[PHASES.length];
+            for (int i = 0; i < PHASES.length; i++) {
+                deviceHistograms[i] = new LatencyHistogram();
+            }
+            if (!histograms.compareAndSet(dev, null, deviceHistograms)) {
+                deviceHistograms = histograms.get(dev);
+            }
+        }
+        deviceHistograms[phase.ordinal()].record(nanos);
+    }
+
+    //Current histograms of every phase, for one device.
+    public synchronized Map<TransferPhase, LatencyHistogram> snapshot(DeviceId devId) {
+        Integer dev = deviceIndexes == null ? null : deviceIndexes.get(devId);
+        if (dev == null) {
+            throw new IllegalArgumentException("Device " + devId + " does not exist in the system.");
+        }
+        EnumMap<TransferPhase, LatencyHistogram> snapshot = emptySnapshot();
+        addDevice(snapshot, dev);
+        return snapshot;
+    }
+
+    //Current histograms of every phase, for all devices together.
+    public synchronized Map<TransferPhase, LatencyHistogram> snapshot() {
+        EnumMap<TransferPhase, LatencyHistogram> snapshot = emptySnapshot();
+        if (histograms != null) {
+            for (int dev = 0; dev < histograms.length(); dev++) {
+                addDevice(snapshot, dev);
+            }
+        }
+        return snapshot;
+    }
+
+    private static EnumMap<TransferPhase, LatencyHistogram> emptySnapshot() {
+        EnumMap<TransferPhase, LatencyHistogram> snapshot = new EnumMap<>(TransferPhase.class);
+        for (TransferPhase phase : PHASES) {
+            snapshot.put(phase, new LatencyHistogram());
+        }
+        return snapshot;
+    }
+
+    private void addDevice(EnumMap<TransferPhase, LatencyHistogram> snapshot, int dev) {
+        LatencyHistogram[] deviceHistograms = histograms.get(dev);
+        if (deviceHistograms != null) {
+            for (TransferPhase phase : PHASES) {
+                snapshot.get(phase).add(deviceHistograms[phase.ordinal()]);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package cp2023.solution;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/*
+Transfer waiting for something, either in a queue of its destination device, or for a place to be left by its previous component.
+Transfer that has a thread waits on a Semaphore, while asynchronous transfer leaves a continuation, which is given to its executor
+when the transfer is released, so that it does not keep any thread while it waits.
+Waiter is a node of a doubly linked WaiterQueue, so it can be removed from the middle of the queue in constant time.
+Links are changed only while holding a lock that protects the queue the waiter is in.
+Transfer that cannot be placed, because the placement log does not take its record, is failed through its Waiter:
+the failure is set while its queue is locked, and releasing the Waiter then throws it in the thread of the transfer,
+or completes the future of an asynchronous transfer with it, instead of running the continuation.
+ */
+
+public class Waiter {
+    private final CompData comp;
+    private final Semaphore wait;
+    private final Executor executor;
+    private final Runnable continuation;
+    private final CompletableFuture<Void> done;
+    private RuntimeException failure;
+    WaiterQueue queue;
+    Waiter prev;
+    Waiter next;
+
+    public Waiter(CompData comp){
+        this.comp = comp;
+        this.wait = new Semaphore(0);
+        this.executor = null;
+        this.continuation = null;
+        this.done = null;
+    }
+
+    public Waiter(CompData comp, Executor executor, Runnable continuation){
+        this(comp, executor, continuation, null);
+    }
+
+    //Waiter of an asynchronous transfer, whose future is completed exceptionally if the transfer fails.
+    public Waiter(CompData comp, Executor executor, Runnable continuation, CompletableFuture<Void> done){
+        this.comp = comp;
+        this.wait = null;
+        this.executor = executor;
+        this.continuation = continuation;
+        this.done = done;
+    }
+
+    public CompData getComp(){
+        return comp;
+    }
+
+    public Waiter getNext(){
+        return next;
+    }
+
+    public boolean isIn(WaiterQueue queue){
+        return this.queue == queue;
+    }
+
+    //Transfer will fail with 'e' when it is released.
+    public void fail(RuntimeException e){
+        failure = e;
+    }
+
+    public boolean hasFailed(){
+        return failure != null;
+    }
+
+    //Lets the waiting transfer continue, it can happen before it starts to wait.
+    public void release(){
+        if (failure != null && done != null){
+            done.completeExceptionally(failure);
+        }else if (continuation != null){
+            executor.execute(continuation);
+        }else{
+            wait.release();
+        }
+    }
+
+    //Only a waiter without a continuation can be waited on. Throws the failure of the transfer, if it has failed.
+    public void await(){
+        try {
+            wait.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("panic: unexpected thread interruption", e);
+        }
+        if (failure != null){
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package cp2023.solution;
+
+/*
+Queue of waiting transfers, made of Waiter nodes linked in both directions.
+Adding, taking the first waiter, and removing any waiter take constant time, and nothing is allocated.
+It is not thread safe, it has to be protected by a lock of its owner.
+ */
+
+public class WaiterQueue {
+    private Waiter first;
+    private Waiter last;
+
+    public boolean isEmpty(){
+        return first == null;
+    }
+
+    //First waiter in the queue, following ones are reached with 'getNext'.
+    public Waiter first(){
+        return first;
+    }
+
+    public void add(Waiter waiter){
+        waiter.queue = this;
+        waiter.prev = last;
+        waiter.next = null;
+        if (last == null){
+            first = waiter;
+        }else{
+            last.next = waiter;
+        }
+        last = waiter;
+    }
+
+    public Waiter poll(){
+        Waiter waiter = first;
+        if (waiter != null){
+            remove(waiter);
+        }
+        return waiter;
+    }
+
+    //Waiter has to be in this queue.
+    public void remove(Waiter waiter){
+        if (waiter.prev == null){
+            first = waiter.next;
+        }else{
+            waiter.prev.next = waiter.next;
+        }
+        if (waiter.next == null){
+            last = waiter.prev;
+        }else{
+            waiter.next.prev = waiter.prev;
+        }
+        waiter.queue = null;
+        waiter.prev = null;
+        waiter.next = null;
+    }
+}